@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    The diff between two loads has to turn the old rows into the new ones with as few
+    notifications as possible, applied in order.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private long mToday;
+
+    public void setUp() {
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    // Days from today, each with the given max temperature
+    private List<ForecastRow> buildRows(int firstDay, int days, int changedDay) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int day = firstDay; day < firstDay + days; day++) {
+            cursor.addRow(new Object[] {day, mToday + day * DateUtils.DAY_IN_MILLIS, null,
+                    day == changedDay ? 30.0 : 20.0, 10.0, "diff_test", 800, 64.7488, -147.353});
+        }
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+        return rows;
+    }
+
+    private List<String> dispatch(ForecastDiff diff) {
+        final List<String> events = new ArrayList<String>();
+        RecyclerView.Adapter adapter = new RecyclerView.Adapter() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                return null;
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return 0;
+            }
+        };
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                events.add("change " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                events.add("insert " + positionStart + "+" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                events.add("remove " + positionStart + "+" + itemCount);
+            }
+        });
+        diff.dispatchTo(adapter);
+        return events;
+    }
+
+    public void testUnchanged() {
+        List<ForecastRow> oldRows = buildRows(0, 14, -1);
+        ForecastDiff diff = ForecastDiff.compute(oldRows, buildRows(0, 14, -1));
+        assertTrue("Error: Identical loads produced changes", diff.isEmpty());
+        assertTrue(diff.appliesTo(oldRows));
+    }
+
+    public void testOneDayChanged() {
+        ForecastDiff diff = ForecastDiff.compute(buildRows(0, 14, -1), buildRows(0, 14, 5));
+        List<String> events = dispatch(diff);
+        assertEquals(1, events.size());
+        assertEquals("change 5+1", events.get(0));
+    }
+
+    public void testNewDay() {
+        // Yesterday drops out, tomorrow's row moves into the "today" layout, a new last day
+        ForecastDiff diff = ForecastDiff.compute(buildRows(-1, 14, -100), buildRows(0, 14, -100));
+        List<String> events = dispatch(diff);
+        assertEquals(3, events.size());
+        assertEquals("remove 0+1", events.get(0));
+        assertEquals("change 0+1", events.get(1));
+        assertEquals("insert 13+1", events.get(2));
+    }
+
+    public void testDifferentDays() {
+        ForecastDiff diff = ForecastDiff.compute(buildRows(0, 3, -1), buildRows(10, 2, -1));
+        List<String> events = dispatch(diff);
+        assertEquals(2, events.size());
+        assertEquals("remove 0+3", events.get(0));
+        assertEquals("insert 0+2", events.get(1));
+    }
+}
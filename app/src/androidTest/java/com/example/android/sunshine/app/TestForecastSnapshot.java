@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+    The snapshot has to give the list the same rows as the loader would, for its own location
+    only, and must never be worse than no snapshot at all when it can't be read.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final String LOCATION = "snapshot_test";
+
+    private long mToday;
+
+    public void setUp() {
+        deleteAll();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        // Yesterday, today and tomorrow
+        for (int day = -1; day <= 1; day++) {
+            ContentValues weather = new ContentValues();
+            weather.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weather.put(WeatherEntry.COLUMN_DATE, mToday + day * DateUtils.DAY_IN_MILLIS);
+            weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+            weather.put(WeatherEntry.COLUMN_MIN_TEMP, 65 + day);
+            weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + day);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+        }
+    }
+
+    public void tearDown() {
+        deleteAll();
+    }
+
+    private void deleteAll() {
+        ForecastSnapshot.getFile(mContext).delete();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testSnapshotMatchesLoader() {
+        ForecastSnapshot.write(mContext, LOCATION);
+        Cursor snapshot = ForecastSnapshot.read(mContext, LOCATION);
+        assertNotNull("Error: The snapshot wasn't written", snapshot);
+
+        Cursor loader = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, mToday),
+                ForecastFragment.FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The snapshot doesn't start today", loader.getCount(),
+                snapshot.getCount());
+        while (loader.moveToNext()) {
+            assertTrue(snapshot.moveToNext());
+            assertEquals(loader.getLong(ForecastFragment.COL_WEATHER_ID),
+                    snapshot.getLong(ForecastFragment.COL_WEATHER_ID));
+            assertEquals(loader.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    snapshot.getLong(ForecastFragment.COL_WEATHER_DATE));
+            assertEquals(loader.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    snapshot.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            assertEquals(loader.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    snapshot.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            assertEquals(loader.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    snapshot.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID));
+            assertEquals(loader.getString(ForecastFragment.COL_LOCATION_SETTING),
+                    snapshot.getString(ForecastFragment.COL_LOCATION_SETTING));
+            assertEquals(loader.getDouble(ForecastFragment.COL_COORD_LAT),
+                    snapshot.getDouble(ForecastFragment.COL_COORD_LAT));
+            assertEquals(loader.getDouble(ForecastFragment.COL_COORD_LONG),
+                    snapshot.getDouble(ForecastFragment.COL_COORD_LONG));
+        }
+        loader.close();
+        snapshot.close();
+    }
+
+    public void testSnapshotOfOtherLocationIgnored() {
+        ForecastSnapshot.write(mContext, LOCATION);
+        assertNull("Error: The snapshot was used for another location",
+                ForecastSnapshot.read(mContext, LOCATION + "_other"));
+    }
+
+    public void testCorruptSnapshotIgnored() throws IOException {
+        FileOutputStream out = new FileOutputStream(ForecastSnapshot.getFile(mContext));
+        out.write(new byte[] {0x53, 0x55, 0x4e, 0x31, 0, 0, 0, 1, 0x7f, 0, 0, 0});
+        out.close();
+        assertNull("Error: A truncated snapshot was used",
+                ForecastSnapshot.read(mContext, LOCATION));
+    }
+}
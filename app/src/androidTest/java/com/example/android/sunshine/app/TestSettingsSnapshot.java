@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    The snapshot has to follow the preferences it caches, without anyone telling it to.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+
+    public void setUp() {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    public void tearDown() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mUnits == null) {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_units_key), mUnits);
+        }
+        editor.commit();
+    }
+
+    public void testFollowsUnits() {
+        SettingsSnapshot.get(mContext);
+        setUnits(R.string.pref_units_imperial);
+        new PollingCheck(TIMEOUT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).metric;
+            }
+        }.run();
+        assertFalse(Utility.isMetric(mContext));
+
+        setUnits(R.string.pref_units_metric);
+        new PollingCheck(TIMEOUT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).metric;
+            }
+        }.run();
+        assertTrue(Utility.isMetric(mContext));
+    }
+
+    public void testListenersReadNewValue() {
+        SettingsSnapshot.get(mContext);
+        setUnits(R.string.pref_units_metric);
+        final String unitsKey = mContext.getString(R.string.pref_units_key);
+        final Boolean[] metricSeen = new Boolean[1];
+        // Listeners are called in no particular order, this one may well come first
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        if (unitsKey.equals(key)) {
+                            SettingsSnapshot.refresh(mContext, key);
+                            synchronized (metricSeen) {
+                                metricSeen[0] = Utility.isMetric(mContext);
+                            }
+                        }
+                    }
+                };
+        mPrefs.registerOnSharedPreferenceChangeListener(listener);
+        try {
+            setUnits(R.string.pref_units_imperial);
+            new PollingCheck(TIMEOUT_MILLIS) {
+                @Override
+                protected boolean check() {
+                    synchronized (metricSeen) {
+                        return metricSeen[0] != null;
+                    }
+                }
+            }.run();
+            assertFalse("Error: A listener read the units from before the change", metricSeen[0]);
+        } finally {
+            mPrefs.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    public void testMatchesPreferences() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_location_key),
+                mContext.getString(R.string.pref_location_default)), settings.location);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_art_pack_key),
+                mContext.getString(R.string.pref_art_pack_sunshine)), settings.artPack);
+    }
+
+    private void setUnits(int unitsId) {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key), mContext.getString(unitsId))
+                .commit();
+    }
+}
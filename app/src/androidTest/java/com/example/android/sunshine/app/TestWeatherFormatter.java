@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+/*
+    The formatter's tables have to give the same strings the SimpleDateFormat and String.format
+    calls they replaced did, whether a string is looked up or made.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+
+    private WeatherFormatter mFormatter;
+
+    public void setUp() {
+        mFormatter = WeatherFormatter.get(mContext);
+    }
+
+    // Noon of the day the given number of days from today
+    private long getDay(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return calendar.getTimeInMillis();
+    }
+
+    public void testDayStrings() {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+        SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        // Twice, the second time from the tables, and past their end
+        for (int pass = 0; pass < 2; pass++) {
+            for (int days = -1; days < 40; days++) {
+                long date = getDay(days);
+                String monthDay = monthDayFormat.format(date);
+                assertEquals(monthDay, mFormatter.getFormattedMonthDay(date));
+
+                String dayName;
+                if (days == 0) {
+                    dayName = mContext.getString(R.string.today);
+                } else if (days == 1) {
+                    dayName = mContext.getString(R.string.tomorrow);
+                } else {
+                    dayName = dayFormat.format(date);
+                }
+                assertEquals(dayName, mFormatter.getDayName(date));
+                assertEquals(mContext.getString(R.string.format_full_friendly_date, dayName,
+                        monthDay), mFormatter.getFullFriendlyDayString(date));
+
+                String friendly = days < 7 ? dayName : shortenedDateFormat.format(date);
+                assertEquals(friendly, mFormatter.getFriendlyDayString(date, false));
+                if (days == 0) {
+                    assertEquals(mContext.getString(R.string.format_full_friendly_date, dayName,
+                            monthDay), mFormatter.getFriendlyDayString(date, true));
+                } else {
+                    assertEquals(friendly, mFormatter.getFriendlyDayString(date, true));
+                }
+            }
+        }
+    }
+
+    public void testTemperatures() {
+        String format = mContext.getString(R.string.format_temperature);
+        for (int pass = 0; pass < 2; pass++) {
+            for (double temperature = -120; temperature <= 170; temperature += 0.25) {
+                if (temperature > -0.5 && temperature < 0) {
+                    // String.format made these "-0"
+                    assertEquals(String.format(format, 0.0),
+                            mFormatter.formatTemperature(temperature));
+                    continue;
+                }
+                assertEquals(String.format(format, temperature),
+                        mFormatter.formatTemperature(temperature));
+            }
+        }
+    }
+
+    public void testWind() {
+        String format = mContext.getString(R.string.format_wind_kmh);
+        float[] degrees = {0, 22.4f, 22.5f, 90, 180, 200, 270, 337.4f, 337.5f, 359.9f};
+        String[] directions = {"N", "N", "NE", "E", "S", "S", "W", "NW", "N", "N"};
+        for (int i = 0; i < degrees.length; i++) {
+            for (float speed = 0; speed < 200; speed += 2.5f) {
+                assertEquals(String.format(format, speed, directions[i]),
+                        mFormatter.getFormattedWind(speed, degrees[i], true));
+            }
+        }
+        assertEquals(String.format(format, 5f, "Unknown"),
+                mFormatter.getFormattedWind(5, Float.NaN, true));
+    }
+
+    public void testConditions() {
+        assertEquals(mContext.getString(R.string.condition_800),
+                mFormatter.getStringForWeatherCondition(800));
+        assertSame(mFormatter.getStringForWeatherCondition(800),
+                mFormatter.getStringForWeatherCondition(800));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1),
+                mFormatter.getStringForWeatherCondition(1));
+        assertEquals(mContext.getString(R.string.condition_unknown, 5000),
+                mFormatter.getStringForWeatherCondition(5000));
+    }
+}
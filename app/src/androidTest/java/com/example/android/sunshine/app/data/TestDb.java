@@ -18,9 +18,12 @@ package com.example.android.sunshine.app.data;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class TestDb extends AndroidTestCase {
 
@@ -177,6 +180,102 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        Checks that upgrading from the previous schema version migrates the database in place:
+        the cached forecast must still be there afterwards, and the new index must exist.
+     */
+    public void testUpgradeKeepsForecasts() {
+        long locationRowId = insertLocation();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+
+        // Turn the database back into a version 2 one
+        db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        db.setVersion(2);
+        dbHelper.close();
+
+        dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+
+        Cursor weatherCursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: The forecast didn't survive the upgrade",
+                weatherCursor, weatherValues);
+
+        Cursor indexCursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: The upgrade didn't create the location/date index",
+                indexCursor.moveToFirst());
+        indexCursor.close();
+        dbHelper.close();
+    }
+
+    /*
+        Checks that the database reads from another thread while a sync's write transaction is
+        still open, instead of waiting for it, and that the read doesn't see uncommitted rows.
+     */
+    public void testReadDuringWriteTransaction() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No write-ahead logging before Honeycomb
+            return;
+        }
+        final long locationRowId = insertLocation();
+
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        Cursor journalCursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(journalCursor.moveToFirst());
+        assertEquals("Error: The database doesn't use write-ahead logging",
+                "wal", journalCursor.getString(0).toLowerCase());
+        journalCursor.close();
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase writerDb = dbHelper.getWritableDatabase();
+                writerDb.beginTransactionNonExclusive();
+                try {
+                    writerDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            TestUtilities.createWeatherValues(locationRowId));
+                    writing.countDown();
+                    // Keep the transaction open until the reader is done, or give up
+                    readDone.await(10, TimeUnit.SECONDS);
+                    writerDb.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    writerDb.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue("Error: The write transaction didn't start",
+                writing.await(5, TimeUnit.SECONDS));
+
+        // With a single connection this would block until the writer gives up
+        long start = System.currentTimeMillis();
+        Cursor weatherCursor = dbHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        int count = weatherCursor.getCount();
+        weatherCursor.close();
+        long elapsed = System.currentTimeMillis() - start;
+        readDone.countDown();
+
+        assertTrue("Error: The read waited " + elapsed + "ms for the write transaction",
+                elapsed < 5000);
+        assertEquals("Error: The read saw an uncommitted row", 0, count);
+
+        writer.join();
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -16,20 +16,28 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.PipelineMetrics;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +520,233 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Rows bulk inserted through a location uri only notify observers of that location,
+    // and a bulk insert that writes nothing notifies nobody.
+    public void testBulkInsertWithLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, weatherObserver);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                bulkInsertContentValues);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Watches every weather uri, not only the location's
+        TestUtilities.TestContentObserver emptyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, emptyObserver);
+
+        assertEquals(0, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new ContentValues[0]));
+
+        // Observers are only told which uri changed from API level 16 on
+        if ( Build.VERSION.SDK_INT >= 16 ) {
+            emptyObserver.waitForFence(mContext, WeatherEntry.CONTENT_URI);
+            assertEquals("Error: A bulk insert that wrote nothing notified observers",
+                    0, emptyObserver.mChangeCount);
+        }
+        mContext.getContentResolver().unregisterContentObserver(emptyObserver);
+        emptyObserver.mHT.quit();
+    }
+
+    // The whole batch is applied in one transaction, and each URI is notified once at the end
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(weatherUri).withValues(values).build());
+        }
+        // Drops the first day again
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(weatherUri, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        // Observers are only told which uri changed from API level 16 on
+        if ( Build.VERSION.SDK_INT >= 16 ) {
+            weatherObserver.waitForFence(mContext, weatherUri);
+            // One for weather/<location> and one for the delete on weather
+            assertEquals("Error: Notifications weren't coalesced",
+                    2, weatherObserver.mChangeCount);
+        }
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, results.length);
+        assertEquals(1, results[results.length - 1].count.intValue());
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+    }
+
+    // A failing operation rolls back the ones before it
+    public void testApplyBatchRollsBack() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues incomplete = new ContentValues();
+        incomplete.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        incomplete.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(TestUtilities.createWeatherValues(locationRowId)).build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(incomplete).build());
+
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A row with missing columns was inserted");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The batch wasn't rolled back", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Repeated single day lookups are answered from memory until the next write
+    public void testDayLookupCache() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING
+        };
+        long hits = provider.getRowCacheHitCount();
+        long misses = provider.getRowCacheMissCount();
+
+        Cursor first = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        Cursor second = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertEquals(misses + 1, provider.getRowCacheMissCount());
+        assertEquals(hits + 1, provider.getRowCacheHitCount());
+
+        assertTrue(second.moveToFirst());
+        assertEquals(weatherValues.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                second.getString(second.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(TestUtilities.TEST_LOCATION,
+                second.getString(second.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        first.close();
+        second.close();
+
+        // A write makes the next lookup go to the database again
+        ContentValues updatedValues = new ContentValues(weatherValues);
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Sunny");
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, updatedValues);
+
+        Cursor third = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertEquals(misses + 2, provider.getRowCacheMissCount());
+        assertTrue(third.moveToFirst());
+        assertEquals("Sunny",
+                third.getString(third.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        third.close();
+        client.release();
+    }
+
+    // Resolving a location twice gives the same row, deleting it makes the next one new
+    public void testLocationResolver() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        String locationSetting = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        String cityName = testValues.getAsString(LocationEntry.COLUMN_CITY_NAME);
+        double lat = testValues.getAsDouble(LocationEntry.COLUMN_COORD_LAT);
+        double lon = testValues.getAsDouble(LocationEntry.COLUMN_COORD_LONG);
+
+        long locationRowId = LocationResolver.getLocationId(mContext, locationSetting, cityName,
+                lat, lon);
+        assertTrue(locationRowId > 0);
+        assertEquals("Error: The same location was resolved to another row", locationRowId,
+                LocationResolver.getLocationId(mContext, locationSetting, cityName, lat, lon));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The location was stored twice", 1, cursor.getCount());
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+        long newRowId = LocationResolver.getLocationId(mContext, locationSetting, cityName,
+                lat, lon);
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(newRowId)}, null);
+        TestUtilities.validateCursor("Error: The location wasn't stored again after a delete",
+                cursor, testValues);
+
+        // A known location that OWM now names or places differently is rewritten in place
+        ContentValues movedValues = new ContentValues(testValues);
+        movedValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole Village");
+        movedValues.put(LocationEntry.COLUMN_COORD_LAT, 65.5);
+        assertEquals("Error: A changed location was resolved to another row", newRowId,
+                LocationResolver.getLocationId(mContext, locationSetting, "North Pole Village",
+                        65.5, lon));
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(newRowId)}, null);
+        TestUtilities.validateCursor("Error: The changed city name and coordinates weren't stored",
+                cursor, movedValues);
+    }
+
+    // The metrics dump lists what was recorded, call() only exists from API level 11 on
+    public void testDumpMetrics() {
+        if ( Build.VERSION.SDK_INT < 11 ) {
+            return;
+        }
+        PipelineMetrics.record(PipelineMetrics.STAGE_SYNC, 42);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_DUMP_METRICS, null, null);
+        assertNotNull("Error: The provider didn't answer " + WeatherContract.METHOD_DUMP_METRICS,
+                result);
+        String metrics = result.getString(WeatherContract.EXTRA_METRICS);
+        assertTrue("Error: The dump is missing the recorded stage: " + metrics,
+                metrics.contains(PipelineMetrics.STAGE_SYNC + ": "));
+    }
 }
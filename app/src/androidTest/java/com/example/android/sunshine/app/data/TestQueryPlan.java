@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks with EXPLAIN QUERY PLAN that the queries behind every WeatherProvider route are
+    answered through index seeks, so they don't slow down as the tables grow.  Like
+    TestUriMatcher, this uses the provider's package protected selections.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    public void testIndexesCreated() {
+        Cursor c = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: The location/date index wasn't created", c.moveToFirst());
+        c.close();
+    }
+
+    // WEATHER, as used by the sync to compare a location's stored days
+    public void testWeatherPlan() {
+        List<String> plan = explain(select(WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                null), "1", Long.toString(TestUtilities.TEST_DATE));
+        assertSeeks(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+    }
+
+    // WEATHER, as used by the sync to delete old days
+    public void testWeatherBeforeDatePlan() {
+        List<String> plan = explain(select(WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " <= ?", null),
+                Long.toString(TestUtilities.TEST_DATE));
+        assertSeeks(plan);
+    }
+
+    public void testWeatherWithLocationPlan() {
+        List<String> plan = explain(WeatherProvider.sWeatherByLocationSettingQueryBuilder
+                .buildQuery(null, WeatherProvider.sLocationSettingSelection, null, null,
+                        SORT_ORDER, null),
+                TestUtilities.TEST_LOCATION);
+        assertSeeks(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    public void testWeatherWithLocationAndStartDatePlan() {
+        List<String> plan = explain(WeatherProvider.sWeatherByLocationSettingQueryBuilder
+                .buildQuery(null, WeatherProvider.sLocationSettingWithStartDateSelection, null,
+                        null, SORT_ORDER, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        assertSeeks(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    public void testWeatherWithLocationAndDatePlan() {
+        List<String> plan = explain(WeatherProvider.sWeatherByLocationSettingQueryBuilder
+                .buildQuery(null, WeatherProvider.sLocationSettingAndDaySelection, null, null,
+                        null, null),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        assertSeeks(plan);
+    }
+
+    public void testLocationPlan() {
+        List<String> plan = explain(select(LocationEntry.TABLE_NAME,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null),
+                TestUtilities.TEST_LOCATION);
+        assertSeeks(plan);
+    }
+
+    private List<String> explain(String sql, String... args) {
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = c.getColumnIndex("detail");
+        List<String> plan = new ArrayList<String>();
+        while (c.moveToNext()) {
+            plan.add(c.getString(detailIndex));
+        }
+        c.close();
+        assertFalse("Error: No query plan for " + sql, plan.isEmpty());
+        return plan;
+    }
+
+    // Full table scans show up as "SCAN TABLE x" (or "SCAN x" on newer SQLite versions)
+    private static void assertSeeks(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Error: Query scans a table: " + plan, step.startsWith("SCAN"));
+        }
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index) {
+        for (String step : plan) {
+            if (step.contains(index)) {
+                return;
+            }
+        }
+        fail("Error: Query doesn't use " + index + ": " + plan);
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Error: Query sorts in a temporary b-tree: " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+
+    // The provider queries single tables through SQLiteDatabase.query(), this is the same SQL
+    private static String select(String table, String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, table, null, selection, null, null,
+                sortOrder, null);
+    }
+}
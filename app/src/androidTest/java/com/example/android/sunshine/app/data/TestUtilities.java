@@ -122,6 +122,9 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
+        private volatile Uri mFence;
+        private volatile boolean mFenceSeen;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -142,7 +145,29 @@ public class TestUtilities extends AndroidTestCase {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            if (uri != null && uri.equals(mFence)) {
+                mFenceSeen = true;
+                return;
+            }
             mContentChanged = true;
+            mChangeCount++;
+        }
+
+        /**
+         * Sends a notification of its own below the observed uri and waits for it.  One
+         * observer gets its notifications in the order they were sent, so after this every
+         * notification sent before has arrived and mChangeCount is final.  It needs the uri
+         * passed to onChange, which only API level 16 and up provide.
+         */
+        public void waitForFence(Context context, Uri observedUri) {
+            mFence = observedUri.buildUpon().appendPath("fence").build();
+            context.getContentResolver().notifyChange(mFence, null, false);
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mFenceSeen;
+                }
+            }.run();
         }
 
         public void waitForNotificationOrFail() {
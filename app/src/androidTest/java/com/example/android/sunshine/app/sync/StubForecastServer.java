@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP server on the loopback interface standing in for OpenWeatherMap.
+
+    Responses are picked in this order: a queued one (enqueue()), a random error if an error
+    rate is set, the captured response recorded for the requested location (addFixture()),
+    and finally the default response.  Every response can be held back by a fixed latency and
+    sent at a limited bandwidth, to look like a slow mobile connection, and gzipped for clients
+    that accept it.  Requests are served concurrently, like a real server would.
+ */
+public class StubForecastServer {
+
+    static final String FORECAST_JSON = "{\"cod\":\"200\","
+            + "\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},"
+            + "\"list\":[{\"pressure\":1024.5,\"humidity\":72,\"speed\":5.5,\"deg\":110,"
+            + "\"temp\":{\"min\":-10.5,\"max\":-4.25},"
+            + "\"weather\":[{\"id\":600,\"main\":\"Snow\"}]}]}";
+
+    // Sent in chunks of this size when the bandwidth is limited
+    private static final int CHUNK_BYTES = 1024;
+
+    private static class Response {
+        final int code;
+        final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    private final ServerSocket mSocket;
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    // Seeded, so a run with an error rate fails the same requests every time
+    private final Random mRandom = new Random(42);
+
+    // All guarded by this
+    private final LinkedList<Response> mQueue = new LinkedList<Response>();
+    private final Map<String, Response> mFixtures = new HashMap<String, Response>();
+    private Response mDefault = new Response(200, FORECAST_JSON);
+    private long mLatencyMillis;
+    private int mBytesPerSecond;
+    private float mErrorRate;
+    private int mErrorCode;
+    private boolean mGzip;
+
+    public StubForecastServer() throws IOException {
+        mSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "StubForecastServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort() + "/forecast/daily?";
+    }
+
+    public synchronized void enqueue(int code, String body) {
+        mQueue.add(new Response(code, body));
+    }
+
+    public synchronized void setDefault(int code, String body) {
+        mDefault = new Response(code, body);
+    }
+
+    /**
+     * Replays a captured response body whenever the location is asked for.
+     */
+    public synchronized void addFixture(String locationSetting, String body) {
+        mFixtures.put(locationSetting, new Response(200, body));
+    }
+
+    public synchronized void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /**
+     * @param bytesPerSecond 0 for no limit
+     */
+    public synchronized void setBandwidth(int bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answers the given share of requests with the error code instead.
+     */
+    public synchronized void setErrorRate(float rate, int code) {
+        mErrorRate = rate;
+        mErrorCode = code;
+    }
+
+    /**
+     * Compresses bodies for requests that send Accept-Encoding: gzip.
+     */
+    public synchronized void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    /**
+     * @return how many requests got an error because of {@link #setErrorRate}
+     */
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void shutdown() throws IOException {
+        mSocket.close();
+        mWorkers.shutdownNow();
+    }
+
+    /**
+     * A response like OWM's with the given number of days, whose numbers differ per day.
+     */
+    static String buildForecastJson(String city, int days) {
+        StringBuilder json = new StringBuilder("{\"cod\":\"200\",\"city\":{\"name\":\"")
+                .append(city)
+                .append("\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},\"list\":[");
+        for (int day = 0; day < days; day++) {
+            if (day > 0) {
+                json.append(',');
+            }
+            json.append("{\"pressure\":").append(1000 + day)
+                    .append(",\"humidity\":").append(50 + day)
+                    .append(",\"speed\":5.5,\"deg\":110,\"temp\":{\"min\":")
+                    .append(-10 - day).append(",\"max\":").append(day)
+                    .append("},\"weather\":[{\"id\":600,\"main\":\"Snow\"}]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private synchronized Response next(String locationSetting) {
+        if (!mQueue.isEmpty()) {
+            return mQueue.removeFirst();
+        }
+        if (mErrorRate > 0 && mRandom.nextFloat() < mErrorRate) {
+            mErrorCount.incrementAndGet();
+            return new Response(mErrorCode, "");
+        }
+        Response fixture = mFixtures.get(locationSetting);
+        return fixture != null ? fixture : mDefault;
+    }
+
+    private void accept() {
+        while (!mSocket.isClosed()) {
+            try {
+                final Socket client = mSocket.accept();
+                mWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (IOException e) {
+                // Closed by shutdown()
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "UTF-8"));
+            // "GET /forecast/daily?q=... HTTP/1.1", then headers.  Nothing here has a body.
+            String requestLine = in.readLine();
+            boolean acceptsGzip = false;
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                if (line.toLowerCase(Locale.US).startsWith("accept-encoding:")
+                        && line.contains("gzip")) {
+                    acceptsGzip = true;
+                }
+            }
+            if (requestLine == null) {
+                return;
+            }
+            mRequestCount.incrementAndGet();
+            String path = requestLine.split(" ")[1];
+            Response response = next(Uri.parse("http://stub" + path).getQueryParameter("q"));
+
+            long latencyMillis;
+            int bytesPerSecond;
+            boolean gzip;
+            synchronized (this) {
+                latencyMillis = mLatencyMillis;
+                bytesPerSecond = mBytesPerSecond;
+                gzip = mGzip && acceptsGzip;
+            }
+            Thread.sleep(latencyMillis);
+
+            byte[] body = response.body == null ? new byte[0] : response.body.getBytes("UTF-8");
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+                gzipOut.write(body);
+                gzipOut.close();
+                body = compressed.toByteArray();
+            }
+            OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.1 " + response.code + " Stub\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+                int length = Math.min(CHUNK_BYTES, body.length - offset);
+                out.write(body, offset, length);
+                out.flush();
+                if (bytesPerSecond > 0) {
+                    Thread.sleep(length * 1000L / bytesPerSecond);
+                }
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // The client went away, or the server was shut down
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Runs ForecastFetcher against a local stub server that fails on demand, to check what is
+    retried, what isn't, and that the circuit breaker keeps requests away from a failing host.
+    Every test gets a server on a new port, so the breakers of different tests don't meet.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String LOCATION = "stub_location";
+    private static final String NOT_FOUND_JSON = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+    private StubForecastServer mServer;
+    private ForecastFetcher mFetcher;
+
+    public void setUp() throws Exception {
+        mServer = new StubForecastServer();
+        // No delay between attempts, the tests don't need to wait for the jitter
+        mFetcher = new ForecastFetcher(mContext, new ForecastHttpCache(mContext),
+                mServer.getBaseUrl(), ForecastFetcher.MAX_ATTEMPTS, 0);
+    }
+
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    public void testRetriesTransientFailures() {
+        mServer.enqueue(503, "");
+        mServer.enqueue(429, "");
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals("Error: Forecast not fetched after transient failures",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        assertNotNull(result.forecast);
+        assertEquals(1, result.forecast.days.size());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        mServer.setDefault(500, "");
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+        assertTrue(result.transientError);
+        assertEquals(ForecastFetcher.MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    public void testUnknownCityNotRetried() {
+        mServer.setDefault(404, NOT_FOUND_JSON);
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, result.status);
+        assertFalse(result.transientError);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testInvalidResponseNotRetried() {
+        mServer.setDefault(200, "<html>not a forecast</html>");
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.status);
+        assertTrue(result.parseError);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testGzipResponse() {
+        String json = StubForecastServer.buildForecastJson(LOCATION, 14);
+        mServer.setDefault(200, json);
+        mServer.setGzip(true);
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        assertEquals(14, result.forecast.days.size());
+        assertEquals(json.length(), result.bodyBytes);
+        assertTrue("Error: The forecast wasn't downloaded compressed",
+                result.wireBytes < result.bodyBytes);
+    }
+
+    public void testUncompressedResponse() {
+        String json = StubForecastServer.buildForecastJson(LOCATION, 14);
+        mServer.setDefault(200, json);
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+        assertEquals(json.length(), result.bodyBytes);
+        assertEquals(result.bodyBytes, result.wireBytes);
+    }
+
+    public void testCircuitBreakerShortCircuits() {
+        mServer.setDefault(503, "");
+
+        // MAX_ATTEMPTS failures in a row are enough to open the breaker
+        assertTrue(ForecastFetcher.MAX_ATTEMPTS >= CircuitBreaker.FAILURE_THRESHOLD);
+        mFetcher.fetch(LOCATION);
+        int requests = mServer.getRequestCount();
+
+        ForecastSource.Result result = mFetcher.fetch(LOCATION);
+        assertEquals("Error: A request reached a host whose breaker is open",
+                requests, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, result.status);
+        assertTrue(result.retryAfterMillis > 0);
+        assertTrue(result.retryAfterMillis <= CircuitBreaker.OPEN_MILLIS);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.StringReader;
+
+/*
+    Feeds the parser a response the way OpenWeatherMap sends it, to check that a complete day
+    comes out as a complete row, and that a day missing a field or a response cut short is
+    rejected as invalid.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    private static final String DAY_JSON = "{\"dt\":1419033600,"
+            + "\"temp\":{\"day\":-2.36,\"min\":-6.72,\"max\":-1.01,\"night\":-6.72},"
+            + "\"pressure\":1011.82,\"humidity\":86,"
+            + "\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\","
+            + "\"icon\":\"13d\"}],"
+            + "\"speed\":1.21,\"deg\":281,\"clouds\":92}";
+
+    private static final String INCOMPLETE_DAY_JSON = "{\"dt\":1419033600,"
+            + "\"temp\":{\"min\":-6.72,\"max\":-1.01},"
+            + "\"pressure\":1011.82,\"humidity\":86,"
+            + "\"weather\":[{\"id\":600,\"main\":\"Snow\"}],"
+            + "\"speed\":1.21}";
+
+    private static String buildResponse(String day) {
+        return "{\"city\":{\"id\":5861897,\"name\":\"Fairbanks\","
+                + "\"coord\":{\"lon\":-147.716,\"lat\":64.8378},\"country\":\"US\"},"
+                + "\"cod\":\"200\",\"message\":0.0044,\"cnt\":1,"
+                + "\"list\":[" + day + "]}";
+    }
+
+    public void testParsesCompleteDay() throws Exception {
+        ForecastData forecast = ForecastJsonParser.parse(new StringReader(buildResponse(DAY_JSON)));
+
+        assertEquals(200, forecast.messageCode);
+        assertEquals("Fairbanks", forecast.cityName);
+        assertEquals(64.8378, forecast.cityLatitude);
+        assertEquals(-147.716, forecast.cityLongitude);
+        assertEquals(1, forecast.days.size());
+
+        ContentValues day = forecast.days.get(0);
+        assertEquals("Error: The day row doesn't have exactly the 9 columns the parser fills in",
+                9, day.size());
+        assertTrue(day.containsKey(WeatherEntry.COLUMN_DATE));
+        assertEquals(1011.82, day.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        assertEquals(86, day.getAsInteger(WeatherEntry.COLUMN_HUMIDITY).intValue());
+        assertEquals(1.21, day.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        assertEquals(281.0, day.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        assertEquals(-1.01, day.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(-6.72, day.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        assertEquals("Snow", day.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(600, day.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue());
+    }
+
+    public void testTruncatedResponse() throws Exception {
+        String response = buildResponse(DAY_JSON);
+        try {
+            ForecastJsonParser.parse(new StringReader(
+                    response.substring(0, response.indexOf("\"pressure\""))));
+            fail("Error: A response that stops in the middle of a day was accepted");
+        } catch (JSONException e) {
+            // expected, it mustn't look like a network error that is worth retrying
+        }
+    }
+
+    public void testEmptyResponse() throws Exception {
+        try {
+            ForecastJsonParser.parse(new StringReader(""));
+            fail("Error: An empty response was accepted");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    public void testRejectsIncompleteDay() throws Exception {
+        try {
+            ForecastJsonParser.parse(new StringReader(buildResponse(INCOMPLETE_DAY_JSON)));
+            fail("Error: A day without a wind direction was accepted");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Load test of the sync: fetch and store through the provider, offline.  The same locations
+    are synced from the stub server, over a slow and flaky connection, and from fixture files,
+    and the throughput and latency of each backend are logged for comparison.  The adapter is
+    made without publishing, so the app's periodic sync, widgets, notification and wear are
+    left alone.
+ */
+public class TestSyncPipeline extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncPipeline.class.getSimpleName();
+
+    private static final int LOCATIONS = 8;
+    private static final int ROUNDS = 3;
+    private static final int DAYS = 14;
+
+    private static final long LATENCY_MILLIS = 150;
+    private static final int BYTES_PER_SECOND = 32 * 1024;
+    private static final float ERROR_RATE = 0.1f;
+
+    private String[] mLocations;
+
+    public void setUp() {
+        mLocations = new String[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            mLocations[i] = "pipeline_" + i;
+        }
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        // The breakers are shared by the whole process, start from closed ones
+        CircuitBreaker.resetAll();
+    }
+
+    public void tearDown() {
+        // Don't leave a breaker opened by the injected errors to the tests that come next
+        CircuitBreaker.resetAll();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testStubServerPipeline() throws IOException {
+        StubForecastServer server = new StubForecastServer();
+        try {
+            for (String location : mLocations) {
+                server.addFixture(location, StubForecastServer.buildForecastJson(location, DAYS));
+            }
+            server.setLatency(LATENCY_MILLIS);
+            server.setBandwidth(BYTES_PER_SECOND);
+            server.setErrorRate(ERROR_RATE, HttpURLConnection.HTTP_UNAVAILABLE);
+            server.setGzip(true);
+
+            ForecastFetcher fetcher = new ForecastFetcher(mContext,
+                    new ForecastHttpCache(mContext), server.getBaseUrl(),
+                    ForecastFetcher.MAX_ATTEMPTS, ForecastFetcher.BASE_RETRY_DELAY_MILLIS / 10);
+            int failedSyncs = runPipeline("stub server",
+                    new SunshineSyncAdapter(mContext, false, fetcher, false));
+            int requests = server.getRequestCount();
+            int errors = server.getErrorCount();
+            Log.d(LOG_TAG, "stub server: " + requests + " requests, " + errors + " errors, "
+                    + failedSyncs + " failed syncs");
+
+            // Every sync that succeeded made one successful request, every other request got
+            // an injected error and was retried or given up on.  A sync refused by an open
+            // breaker makes no request at all.
+            int syncs = ROUNDS * LOCATIONS;
+            assertEquals("Error: Requests that are neither a success nor an injected error",
+                    syncs - failedSyncs + errors, requests);
+            assertTrue("Error: More attempts than the fetcher allows",
+                    requests <= syncs * ForecastFetcher.MAX_ATTEMPTS);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testFixturePipeline() throws IOException {
+        File directory = new File(mContext.getCacheDir(), "forecast_fixtures");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+        try {
+            for (String location : mLocations) {
+                OutputStream out = new FileOutputStream(
+                        FixtureForecastSource.getFixtureFile(directory, location));
+                out.write(StubForecastServer.buildForecastJson(location, DAYS).getBytes("UTF-8"));
+                out.close();
+            }
+            int failedSyncs = runPipeline("fixtures", new SunshineSyncAdapter(mContext, false,
+                    new FixtureForecastSource(directory), false));
+            assertEquals("Error: Syncing from fixtures failed", 0, failedSyncs);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Syncs every location ROUNDS times.  A location that was synced at least once must have
+     * its whole forecast stored, one that never was must have nothing.
+     *
+     * @return the number of syncs whose fetch failed
+     */
+    private int runPipeline(String backend, SunshineSyncAdapter adapter) {
+        String authority = mContext.getString(R.string.content_authority);
+        long totalMillis = 0;
+        long maxMillis = 0;
+        int failedSyncs = 0;
+        Set<String> synced = new HashSet<String>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String location : mLocations) {
+                Bundle extras = new Bundle();
+                extras.putString(SunshineSyncAdapter.SYNC_EXTRAS_LOCATION, location);
+                SyncResult syncResult = new SyncResult();
+
+                long start = SystemClock.elapsedRealtime();
+                adapter.onPerformSync(null, extras, authority, null, syncResult);
+                long millis = SystemClock.elapsedRealtime() - start;
+
+                totalMillis += millis;
+                maxMillis = Math.max(maxMillis, millis);
+                assertFalse("Error: " + backend + " sync of " + location + " failed to store",
+                        syncResult.databaseError);
+                if (syncResult.stats.numIoExceptions > 0
+                        || syncResult.stats.numParseExceptions > 0) {
+                    failedSyncs++;
+                } else {
+                    synced.add(location);
+                }
+            }
+        }
+
+        int syncs = ROUNDS * LOCATIONS;
+        Log.d(LOG_TAG, backend + ": " + syncs + " syncs in " + totalMillis + "ms, "
+                + (totalMillis == 0 ? syncs : syncs * 1000 / totalMillis) + " syncs/s, avg "
+                + totalMillis / syncs + "ms, max " + maxMillis + "ms");
+        Log.d(LOG_TAG, PipelineMetrics.dump());
+
+        for (String location : mLocations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                    null, null, null, null);
+            assertEquals("Error: " + backend + " didn't store the forecast of " + location,
+                    synced.contains(location) ? DAYS : 0, cursor.getCount());
+            cursor.close();
+        }
+        return failedSyncs;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What changed between two loads of the forecast list, as the removes, inserts and changes that
+ * turn the old rows into the new ones.  Rows are matched by date, which both lists are sorted
+ * by, so one pass over them is enough.  A sync that changed one day then rebinds one row, and
+ * a new day removes the first row and adds one at the end, instead of rebinding all of them.
+ */
+public class ForecastDiff {
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int CHANGE = 2;
+
+    private final List<ForecastRow> mOldRows;
+    // In the order they have to be applied: type, position, count
+    private final List<int[]> mOperations = new ArrayList<int[]>();
+
+    private ForecastDiff(List<ForecastRow> oldRows) {
+        mOldRows = oldRows;
+    }
+
+    /**
+     * @param oldRows what the adapter shows now, ascending by date
+     * @param newRows what it is going to show, ascending by date
+     */
+    public static ForecastDiff compute(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastDiff diff = new ForecastDiff(oldRows);
+        // Where the next operation applies, in the list as it is after the previous ones
+        int position = 0;
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (oldIndex < oldRows.size() || newIndex < newRows.size()) {
+            ForecastRow oldRow = oldIndex < oldRows.size() ? oldRows.get(oldIndex) : null;
+            ForecastRow newRow = newIndex < newRows.size() ? newRows.get(newIndex) : null;
+            if (newRow == null || (oldRow != null && oldRow.date < newRow.date)) {
+                diff.add(REMOVE, position);
+                oldIndex++;
+            } else if (oldRow == null || newRow.date < oldRow.date) {
+                diff.add(INSERT, position);
+                position++;
+                newIndex++;
+            } else {
+                // The first row has a layout of its own, so a row moving in or out of it changes
+                if (!oldRow.hasSameContent(newRow) || (oldIndex == 0) != (newIndex == 0)) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                oldIndex++;
+                newIndex++;
+            }
+        }
+        return diff;
+    }
+
+    private void add(int type, int position) {
+        if (!mOperations.isEmpty()) {
+            int[] last = mOperations.get(mOperations.size() - 1);
+            // Removes of a range all happen at its start, inserts and changes follow each other
+            int next = type == REMOVE ? last[1] : last[1] + last[2];
+            if (last[0] == type && position == next) {
+                last[2]++;
+                return;
+            }
+        }
+        mOperations.add(new int[] {type, position, 1});
+    }
+
+    /**
+     * @return whether the diff was computed from exactly these rows
+     */
+    public boolean appliesTo(List<ForecastRow> rows) {
+        return mOldRows == rows;
+    }
+
+    /**
+     * @return whether the rows are the same, nothing to tell the adapter
+     */
+    public boolean isEmpty() {
+        return mOperations.isEmpty();
+    }
+
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int[] operation : mOperations) {
+            switch (operation[0]) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(operation[1], operation[2]);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(operation[1], operation[2]);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(operation[1], operation[2]);
+            }
+        }
+    }
+}
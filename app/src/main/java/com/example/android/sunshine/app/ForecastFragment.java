@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
@@ -24,13 +25,13 @@ import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -72,6 +73,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private AsyncTask<Void, Void, Cursor> mSnapshotTask;
 
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
@@ -259,9 +261,61 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
 
+        // On a fresh start, draw the forecast the last sync left behind while the loader opens
+        // the database.  The loader's cursor replaces it as soon as it is ready.
+        if (savedInstanceState == null) {
+            loadSnapshot();
+        }
+
         return rootView;
     }
 
+    /*
+        Reads the snapshot and formats its rows off the main thread, like the loader does, so
+        neither the file nor the formatting holds up the first frame.  A snapshot that arrives
+        after the loader has delivered is stale and dropped.
+     */
+    private void loadSnapshot() {
+        final Context context = getActivity().getApplicationContext();
+        final String locationSetting = Utility.getPreferredLocation(context);
+        mSnapshotTask = new AsyncTask<Void, Void, Cursor>() {
+            @Override
+            protected Cursor doInBackground(Void... params) {
+                Cursor snapshot = ForecastSnapshot.read(context, locationSetting);
+                return snapshot == null ? null : new ForecastLoader.RowsCursor(context, snapshot);
+            }
+
+            @Override
+            protected void onPostExecute(Cursor snapshot) {
+                mSnapshotTask = null;
+                if (snapshot == null) {
+                    return;
+                }
+                if (null == mForecastAdapter || null != mForecastAdapter.getCursor()) {
+                    snapshot.close();
+                    return;
+                }
+                mForecastAdapter.swapCursor(snapshot);
+            }
+
+            @Override
+            protected void onCancelled(Cursor snapshot) {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+        }.execute();
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (null != mSnapshotTask) {
+            mSnapshotTask.cancel(false);
+            mSnapshotTask = null;
+        }
+        super.onDestroyView();
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         // We hold for transition here just in-case the activity
@@ -327,7 +381,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        // Formats the rows in the background too, so the adapter doesn't while scrolling
+        return new ForecastLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
@@ -354,16 +409,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for (int i = 0; i < count; i++) {
-                                data.moveToPosition(i);
-                                if (data.getLong(dateColumn) == mInitialSelectedDate) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            // Rows are identified by their date
+                            position = mForecastAdapter.getPositionForId(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
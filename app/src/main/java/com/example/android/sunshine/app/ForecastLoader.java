@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import java.util.List;
+
+/**
+ * A {@link CursorLoader} for the forecast list that also formats its rows on the loader's
+ * thread, and works out how they differ from the rows of its previous load.  The cursor it
+ * delivers is a {@link RowsCursor}, which carries both along.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    // Only touched by loadInBackground, which never runs twice at once
+    private List<ForecastRow> mLastRows;
+
+    /**
+     * A cursor together with its rows, formatted by {@link ForecastRow#fromCursor}.
+     */
+    public static class RowsCursor extends CursorWrapper {
+        private final List<ForecastRow> mRows;
+        private ForecastDiff mDiff;
+
+        public RowsCursor(Context context, Cursor cursor) {
+            super(cursor);
+            mRows = ForecastRow.fromCursor(context, cursor);
+        }
+
+        public List<ForecastRow> getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the changes from the loader's previous rows, null for its first load
+         */
+        public ForecastDiff getDiff() {
+            return mDiff;
+        }
+    }
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            RowsCursor rows = new RowsCursor(getContext(), cursor);
+            if (mLastRows != null) {
+                rows.mDiff = ForecastDiff.compute(mLastRows, rows.getRows());
+            }
+            mLastRows = rows.getRows();
+            return rows;
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the rows the loader formatted, or the cursor's rows formatted now if it didn't
+     * come from a loader
+     */
+    public static List<ForecastRow> getRows(Context context, Cursor cursor) {
+        if (cursor instanceof RowsCursor) {
+            return ((RowsCursor) cursor).getRows();
+        }
+        return ForecastRow.fromCursor(context, cursor);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One day of the forecast list with everything {@link ForecastAdapter} shows already formatted,
+ * so binding a row only hands strings to views.  The rows are built once per load, off the main
+ * thread when they come from {@link ForecastLoader}, and reflect the settings of that moment.
+ * Settings that change how the list looks notify the weather URI, which reloads them.
+ */
+public class ForecastRow {
+    public final long date;
+    public final int weatherId;
+    // The art for the "today" layout, the icon for every other row
+    public final int artResource;
+    public final int iconResource;
+    // null when the local graphics are used
+    public final String artUrl;
+    // "Today, June 8" for the "today" layout, the same as dayText otherwise
+    public final String todayText;
+    public final String dayText;
+    public final String description;
+    public final String descriptionA11y;
+    public final String high;
+    public final String highA11y;
+    public final String low;
+    public final String lowA11y;
+
+    private ForecastRow(Context context, Cursor cursor, boolean localGraphics) {
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        todayText = Utility.getFriendlyDayString(context, date, true);
+        dayText = Utility.getFriendlyDayString(context, date, false);
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        high = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+    }
+
+    /**
+     * @return whether binding the other row would show exactly what this one shows
+     */
+    public boolean hasSameContent(ForecastRow other) {
+        return date == other.date
+                && weatherId == other.weatherId
+                && artResource == other.artResource
+                && iconResource == other.iconResource
+                && TextUtils.equals(artUrl, other.artUrl)
+                && todayText.equals(other.todayText)
+                && dayText.equals(other.dayText)
+                && description.equals(other.description)
+                && high.equals(other.high)
+                && low.equals(other.low);
+    }
+
+    /**
+     * Formats every row of a cursor with the {@link ForecastFragment#FORECAST_COLUMNS}.
+     *
+     * @return an unmodifiable list, in the order of the cursor
+     */
+    public static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        List<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            rows.add(new ForecastRow(context, cursor, localGraphics));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The preferred location's forecast as the list last showed it, kept in a small file so a cold
+ * start can draw the list before the database is even opened.  The sync writes it whenever the
+ * stored forecast changes, and {@link ForecastFragment} shows it until its loader delivers.
+ *
+ * The file is a fixed header, one fixed-width record per day and the location setting:
+ * <pre>
+ *   int magic, int version, int days, double latitude, double longitude
+ *   days * (long _id, long date, double max, double min, int weather id)
+ *   int length, UTF-8 location setting
+ * </pre>
+ * It is memory mapped to be read, so nothing is parsed but the few fields the list needs.  The
+ * description isn't kept, the list derives it from the weather id.
+ */
+public class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_snapshot";
+
+    private static final int MAGIC = 0x53554e31; // "SUN1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8;
+    private static final int RECORD_BYTES = 8 + 8 + 8 + 8 + 4;
+
+    private ForecastSnapshot() {
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Replaces the snapshot with the location's forecast from today on, as it is in the
+     * database now.  Must not be called on the main thread.
+     */
+    public static void write(Context context, String locationSetting) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(uri, ForecastFragment.FORECAST_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        byte[] snapshot;
+        try {
+            if (!cursor.moveToFirst()) {
+                // Nothing to show, the list will say why once the loader finishes
+                getFile(context).delete();
+                return;
+            }
+            snapshot = encode(cursor, locationSetting);
+        } finally {
+            cursor.close();
+        }
+
+        // Written aside and renamed, so a reader never maps half a file
+        File file = getFile(context);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(snapshot);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(LOG_TAG, "Couldn't replace " + file);
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + tmp, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the days from today on, with the columns of {@link ForecastFragment#FORECAST_COLUMNS},
+     * or null if there is no snapshot of this location.  Maps a file, so like {@link #write}
+     * it must not be called on the main thread.
+     */
+    public static Cursor read(Context context, String locationSetting) {
+        File file = getFile(context);
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer, locationSetting,
+                    WeatherContract.normalizeDate(System.currentTimeMillis()));
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+                | NegativeArraySizeException | IllegalArgumentException e) {
+            // A snapshot that can't be read is only a missed shortcut
+            Log.w(LOG_TAG, "Ignoring unreadable " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(Cursor cursor, String locationSetting) {
+        byte[] location = getBytes(locationSetting);
+        int days = cursor.getCount();
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_BYTES + days * RECORD_BYTES + 4 + location.length);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(days)
+                .putDouble(cursor.getDouble(ForecastFragment.COL_COORD_LAT))
+                .putDouble(cursor.getDouble(ForecastFragment.COL_COORD_LONG));
+        do {
+            buffer.putLong(cursor.getLong(ForecastFragment.COL_WEATHER_ID))
+                    .putLong(cursor.getLong(ForecastFragment.COL_WEATHER_DATE))
+                    .putDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP))
+                    .putDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP))
+                    .putInt(cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID));
+        } while (cursor.moveToNext());
+        buffer.putInt(location.length).put(location);
+        return buffer.array();
+    }
+
+    private static Cursor decode(ByteBuffer buffer, String locationSetting, long today) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int days = buffer.getInt();
+        double lat = buffer.getDouble();
+        double lon = buffer.getDouble();
+
+        // The location comes last, check it before building any rows
+        int locationOffset = HEADER_BYTES + days * RECORD_BYTES;
+        byte[] location = new byte[buffer.getInt(locationOffset)];
+        buffer.position(locationOffset + 4);
+        buffer.get(location);
+        if (!locationSetting.equals(getString(location))) {
+            return null;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS, days);
+        buffer.position(HEADER_BYTES);
+        for (int i = 0; i < days; i++) {
+            long id = buffer.getLong();
+            long date = buffer.getLong();
+            double max = buffer.getDouble();
+            double min = buffer.getDouble();
+            int weatherId = buffer.getInt();
+            if (date < today) {
+                continue;
+            }
+            // In the order of FORECAST_COLUMNS
+            cursor.addRow(new Object[] {
+                    id, date, null, max, min, locationSetting, weatherId, lat, lon});
+        }
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    private static byte[] getBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String getString(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
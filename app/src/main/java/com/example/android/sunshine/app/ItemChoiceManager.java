@@ -28,8 +28,8 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  Checked
+ * positions follow rows inserted or removed before them, as the adapter reports them.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,8 +44,28 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onItemsMoved(positionStart, 0, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onItemsMoved(positionStart, itemCount, 0);
+        }
     };
 
+    /**
+     * Implemented by adapters with stable IDs that can tell where an ID is without searching.
+     */
+    public interface PositionLookup {
+        /**
+         * @return the position of the item with the ID, or RecyclerView.NO_POSITION
+         */
+        int getPositionForId(long id);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -53,6 +73,8 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        // The checked items have to follow their rows when others are inserted or removed
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -68,7 +90,7 @@ public class ItemChoiceManager {
     SparseBooleanArray mCheckStates = new SparseBooleanArray();
 
     /**
-     * Running state of which IDs are currently checked.
+     * Running state of which IDs are currently checked, in both single and multiple choice mode.
      * If there is a value for a given key, the checked state for that ID is true
      * and the value holds the last known position in the adapter for that id.
      */
@@ -109,6 +131,12 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                // Kept for every checked row, so the checks can follow their IDs across changes
+                if (checked) {
+                    mCheckedIdStates.delete(mAdapter.getItemId(position));
+                } else {
+                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -158,6 +186,20 @@ public class ItemChoiceManager {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
+        if (mAdapter instanceof PositionLookup) {
+            PositionLookup lookup = (PositionLookup) mAdapter;
+            for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+                int position = lookup.getPositionForId(mCheckedIdStates.keyAt(i));
+                if (position == RecyclerView.NO_POSITION) {
+                    mCheckedIdStates.removeAt(i);
+                } else {
+                    mCheckStates.put(position, true);
+                    mCheckedIdStates.setValueAt(i, position);
+                }
+            }
+            return;
+        }
+
         for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
@@ -188,6 +230,41 @@ public class ItemChoiceManager {
         }
     }
 
+    private void onItemsMoved(int positionStart, int removed, int inserted) {
+        if (mAdapter.hasStableIds()) {
+            // The adapter already holds the final data, the IDs say where everything went
+            confirmCheckedPositionsById(mAdapter.getItemCount());
+        } else {
+            shiftCheckedPositions(positionStart, removed, inserted);
+        }
+    }
+
+    /**
+     * Moves the checked positions after positionStart by the rows inserted or removed there.
+     * Checked rows that were removed are unchecked.
+     */
+    void shiftCheckedPositions(int positionStart, int removed, int inserted) {
+        SparseBooleanArray checkStates = new SparseBooleanArray();
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = mCheckStates.keyAt(i);
+            if (position >= positionStart + removed) {
+                checkStates.put(position - removed + inserted, mCheckStates.valueAt(i));
+            } else if (position < positionStart) {
+                checkStates.put(position, mCheckStates.valueAt(i));
+            }
+        }
+        mCheckStates = checkStates;
+
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position >= positionStart + removed) {
+                mCheckedIdStates.setValueAt(i, position - removed + inserted);
+            } else if (position >= positionStart) {
+                mCheckedIdStates.removeAt(i);
+            }
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
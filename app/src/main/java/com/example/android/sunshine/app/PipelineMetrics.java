@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings and counters of each stage of a sync, from resolving the forecast host to the last
+ * consumer told about the new data.  A stage keeps its last {@link #WINDOW} samples, so the
+ * percentiles follow what the device does now rather than since the process started.
+ *
+ * Everything is in memory only.  {@link #dump()} formats it, and the weather provider hands
+ * that out through {@code call()} with
+ * {@link com.example.android.sunshine.app.data.WeatherContract#METHOD_DUMP_METRICS}, e.g.
+ * {@code adb shell content call --uri content://com.example.android.sunshine.app
+ * --method dump_metrics} on Lollipop and higher.
+ */
+public class PipelineMetrics {
+
+    public static final String STAGE_SYNC = "sync";
+    public static final String STAGE_DNS = "fetch.dns";
+    public static final String STAGE_CONNECT = "fetch.connect";
+    public static final String STAGE_FIRST_BYTE = "fetch.first_byte";
+    public static final String STAGE_DOWNLOAD = "fetch.download";
+    public static final String STAGE_PARSE = "fetch.parse";
+    public static final String STAGE_RESOLVE_LOCATION = "store.resolve_location";
+    public static final String STAGE_COMPARE = "store.compare";
+    public static final String STAGE_BATCH = "store.batch";
+    public static final String STAGE_INSERT = "store.insert";
+    public static final String STAGE_DELETE = "store.delete";
+    public static final String STAGE_COMMIT = "store.commit";
+    // Followed by the consumer's name
+    public static final String STAGE_FAN_OUT = "fanout.";
+
+    public static final String COUNTER_WIRE_BYTES = "download.wire_bytes";
+    public static final String COUNTER_BODY_BYTES = "download.body_bytes";
+    public static final String COUNTER_ROWS_INSERTED = "store.rows_inserted";
+    public static final String COUNTER_ROWS_DELETED = "store.rows_deleted";
+    // Followed by the consumer's name
+    public static final String COUNTER_FAN_OUT_FAILURES = "fanout.failures.";
+    public static final String COUNTER_FAN_OUT_TIMEOUTS = "fanout.timeouts.";
+    public static final String COUNTER_SYNC_REQUESTS = "coalesce.requests";
+    public static final String COUNTER_SYNCS_MERGED = "coalesce.merged";
+    public static final String COUNTER_SYNCS_DROPPED = "coalesce.dropped";
+    public static final String COUNTER_SYNCS_ISSUED = "coalesce.issued";
+
+    static final int WINDOW = 128;
+
+    // Both guarded by themselves, in the order stages first show up
+    private static final Map<String, Histogram> sStages = new LinkedHashMap<String, Histogram>();
+    private static final Map<String, long[]> sCounters = new LinkedHashMap<String, long[]>();
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * The last {@link #WINDOW} durations of a stage.
+     */
+    static class Histogram {
+        private final long[] mSamples = new long[WINDOW];
+        private int mNext;
+        private int mSize;
+        private long mCount;
+
+        synchronized void add(long millis) {
+            mSamples[mNext] = millis;
+            mNext = (mNext + 1) % WINDOW;
+            mSize = Math.min(WINDOW, mSize + 1);
+            mCount++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            long[] sorted = Arrays.copyOf(mSamples, mSize);
+            Arrays.sort(sorted);
+            return "n=" + mCount
+                    + " p50=" + percentile(sorted, 50) + "ms"
+                    + " p90=" + percentile(sorted, 90) + "ms"
+                    + " p99=" + percentile(sorted, 99) + "ms"
+                    + " max=" + (mSize == 0 ? 0 : sorted[mSize - 1]) + "ms";
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+        }
+    }
+
+    /**
+     * Adds a duration to the stage's window.
+     */
+    public static void record(String stage, long millis) {
+        Histogram histogram;
+        synchronized (sStages) {
+            histogram = sStages.get(stage);
+            if (histogram == null) {
+                histogram = new Histogram();
+                sStages.put(stage, histogram);
+            }
+        }
+        histogram.add(millis);
+    }
+
+    /**
+     * Adds to a counter, which keeps growing for as long as the process lives.
+     */
+    public static void count(String counter, long delta) {
+        synchronized (sCounters) {
+            long[] value = sCounters.get(counter);
+            if (value == null) {
+                value = new long[1];
+                sCounters.put(counter, value);
+            }
+            value[0] += delta;
+        }
+    }
+
+    /**
+     * @return one line per stage with its percentiles, then one line per counter
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        synchronized (sStages) {
+            for (Map.Entry<String, Histogram> entry : sStages.entrySet()) {
+                dump.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+        synchronized (sCounters) {
+            for (Map.Entry<String, long[]> entry : sCounters.entrySet()) {
+                dump.append(entry.getKey()).append(": ").append(entry.getValue()[0]).append('\n');
+            }
+        }
+        return dump.toString();
+    }
+}
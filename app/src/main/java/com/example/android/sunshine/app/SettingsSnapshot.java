@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The settings that are read while binding rows and formatting numbers, typed and read once.
+ * One listener on the default preferences replaces the snapshot whenever one of them changes,
+ * so {@link #get(Context)} is a volatile read rather than a map lookup plus resolving the
+ * key and default resources.
+ *
+ * Preferences notify their listeners on the main thread, after the new value is in memory, but
+ * in no particular order.  Another listener can run before the snapshot's own one, so listeners
+ * that go on to read these settings call {@link #refresh(Context, String)} first.  Other threads
+ * can still read the old value until the main thread gets to the listeners.
+ * Everything here lives in one process, which is all the listener can hear about.
+ */
+public class SettingsSnapshot {
+
+    public final String location;
+    public final boolean metric;
+    // The art pack's URL format, with a %s for the art's name
+    public final String artPack;
+    public final boolean localGraphics;
+
+    private static volatile SettingsSnapshot sCurrent;
+    // Set once by init, before sCurrent is
+    private static Context sContext;
+    private static String sLocationKey;
+    private static String sUnitsKey;
+    private static String sArtPackKey;
+    // Preferences only hold on to their listeners weakly
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+    }
+
+    /**
+     * @return the settings as they are now
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current == null) {
+            current = init(context);
+        }
+        return current;
+    }
+
+    /**
+     * Rereads the settings if the changed preference is one of them.  Safe to call more than
+     * once for the same change.
+     */
+    public static void refresh(Context context, String key) {
+        get(context);
+        if (sLocationKey.equals(key) || sUnitsKey.equals(key) || sArtPackKey.equals(key)) {
+            reload();
+        }
+    }
+
+    private static synchronized void reload() {
+        sCurrent = new SettingsSnapshot(sContext,
+                PreferenceManager.getDefaultSharedPreferences(sContext));
+    }
+
+    private static synchronized SettingsSnapshot init(Context context) {
+        if (sCurrent == null) {
+            sContext = context.getApplicationContext();
+            sLocationKey = sContext.getString(R.string.pref_location_key);
+            sUnitsKey = sContext.getString(R.string.pref_units_key);
+            sArtPackKey = sContext.getString(R.string.pref_art_pack_key);
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    refresh(sContext, key);
+                }
+            };
+            // Registered before the first read, so no change can fall in between
+            PreferenceManager.getDefaultSharedPreferences(sContext)
+                    .registerOnSharedPreferenceChangeListener(sListener);
+            reload();
+        }
+        return sCurrent;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats what the list, detail, widgets, notification and Muzei show, behind the helpers in
+ * {@link Utility}.  Everything that only depends on the locale is looked up once: day and month
+ * names, and the resource strings.  The strings that are formatted are kept in tables once
+ * made, so the same temperature, wind, condition or day of the forecast is only ever formatted
+ * once:
+ * <ul>
+ *     <li>temperatures by their rounded value, in the units they are shown in</li>
+ *     <li>wind by its rounded speed and compass direction</li>
+ *     <li>conditions by their OpenWeatherMap id</li>
+ *     <li>the day strings of the days around today, until the day changes</li>
+ * </ul>
+ * A value outside the tables is formatted the way it always was.  There is one formatter per
+ * locale, a new one is made when the locale changes.  The tables are filled by whichever thread
+ * asks first, which at worst formats the same string twice.
+ */
+public class WeatherFormatter {
+
+    // Temperatures in the table, in the units shown
+    private static final int MIN_TEMPERATURE = -100;
+    private static final int MAX_TEMPERATURE = 150;
+    // Wind speeds in the table, in the units shown
+    private static final int MAX_WIND_SPEED = 150;
+    // The OpenWeatherMap condition ids are all below this
+    private static final int CONDITION_IDS = 1000;
+    // Days in the day tables, starting with yesterday
+    private static final int WINDOW_DAYS = 21;
+
+    // Julian day of 1970-01-01
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+    private static final String UNKNOWN_DIRECTION = "Unknown";
+
+    // Kinds of day strings in the day tables
+    private static final int DAY_NAME = 0;
+    private static final int FRIENDLY_DAY = 1;
+    private static final int FRIENDLY_LONG_TODAY = 2;
+    private static final int FULL_FRIENDLY_DAY = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int DAY_KINDS = 5;
+
+    private static volatile WeatherFormatter sInstance;
+
+    private final Resources mResources;
+    private final Locale mLocale;
+    private final String mToday;
+    private final String mTomorrow;
+    private final String mTemperatureFormat;
+    private final String mFullFriendlyDateFormat;
+    private final String mWindKmhFormat;
+    private final String mWindMphFormat;
+    // Indexed by Calendar.SUNDAY to Calendar.SATURDAY
+    private final String[] mWeekdays;
+    private final String[] mShortWeekdays;
+    // Indexed by Calendar.JANUARY to Calendar.DECEMBER
+    private final String[] mMonths;
+    private final String[] mShortMonths;
+    // "01" to "31", as SimpleDateFormat's "dd" gives them
+    private final String[] mDaysOfMonth = new String[32];
+
+    private final String[] mTemperatures = new String[MAX_TEMPERATURE - MIN_TEMPERATURE + 1];
+    // By units, then speed, then direction with "Unknown" last
+    private final String[][][] mWinds = new String[2][MAX_WIND_SPEED + 1][DIRECTIONS.length + 1];
+    private final String[] mConditions = new String[CONDITION_IDS];
+    private volatile DayTable mDays = new DayTable(0);
+
+    /**
+     * The day strings of WINDOW_DAYS days from the day before today, the day they were made on.
+     * "Today" and "Tomorrow" are only right for that day.
+     */
+    private static class DayTable {
+        final int today;
+        final String[][] strings = new String[DAY_KINDS][WINDOW_DAYS];
+
+        DayTable(int today) {
+            this.today = today;
+        }
+    }
+
+    private WeatherFormatter(Context context) {
+        mResources = context.getResources();
+        mLocale = Locale.getDefault();
+        mToday = mResources.getString(R.string.today);
+        mTomorrow = mResources.getString(R.string.tomorrow);
+        mTemperatureFormat = mResources.getString(R.string.format_temperature);
+        mFullFriendlyDateFormat = mResources.getString(R.string.format_full_friendly_date);
+        mWindKmhFormat = mResources.getString(R.string.format_wind_kmh);
+        mWindMphFormat = mResources.getString(R.string.format_wind_mph);
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(mLocale);
+        mWeekdays = symbols.getWeekdays();
+        mShortWeekdays = symbols.getShortWeekdays();
+        mMonths = symbols.getMonths();
+        mShortMonths = symbols.getShortMonths();
+        for (int day = 1; day < mDaysOfMonth.length; day++) {
+            mDaysOfMonth[day] = String.format(mLocale, "%02d", day);
+        }
+    }
+
+    /**
+     * @return the formatter for the current locale
+     */
+    public static WeatherFormatter get(Context context) {
+        WeatherFormatter formatter = sInstance;
+        if (formatter == null || !formatter.mLocale.equals(Locale.getDefault())) {
+            formatter = new WeatherFormatter(context.getApplicationContext());
+            sInstance = formatter;
+        }
+        return formatter;
+    }
+
+    /**
+     * @param temperature in the units it is shown in
+     */
+    public String formatTemperature(double temperature) {
+        // Compared as a double first, which also sends NaN to String.format
+        if (temperature > MIN_TEMPERATURE - 1 && temperature < MAX_TEMPERATURE + 1) {
+            int rounded = round(temperature);
+            if (rounded >= MIN_TEMPERATURE && rounded <= MAX_TEMPERATURE) {
+                int index = rounded - MIN_TEMPERATURE;
+                String formatted = mTemperatures[index];
+                if (formatted == null) {
+                    formatted = String.format(mTemperatureFormat, (double) rounded);
+                    mTemperatures[index] = formatted;
+                }
+                return formatted;
+            }
+        }
+        return String.format(mTemperatureFormat, temperature);
+    }
+
+    /**
+     * @param windSpeed in the units it is shown in
+     * @param metric whether that is km/h rather than mph
+     */
+    public String getFormattedWind(float windSpeed, float degrees, boolean metric) {
+        String format = metric ? mWindKmhFormat : mWindMphFormat;
+        int direction = getDirection(degrees);
+        String directionLabel = direction < DIRECTIONS.length
+                ? DIRECTIONS[direction] : UNKNOWN_DIRECTION;
+        if (windSpeed > -0.5f && windSpeed < MAX_WIND_SPEED + 0.5f) {
+            int rounded = round(windSpeed);
+            String[] winds = mWinds[metric ? 0 : 1][rounded];
+            String formatted = winds[direction];
+            if (formatted == null) {
+                formatted = String.format(format, (float) rounded, directionLabel);
+                winds[direction] = formatted;
+            }
+            return formatted;
+        }
+        return String.format(format, windSpeed, directionLabel);
+    }
+
+    /**
+     * @return the condition's name, or the unknown condition string with the id in it
+     */
+    public String getStringForWeatherCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= CONDITION_IDS) {
+            return formatCondition(weatherId);
+        }
+        String condition = mConditions[weatherId];
+        if (condition == null) {
+            condition = formatCondition(weatherId);
+            mConditions[weatherId] = condition;
+        }
+        return condition;
+    }
+
+    /**
+     * @return "Today", "Tomorrow" or the day of the week, e.g. "Wednesday"
+     */
+    public String getDayName(long dateInMillis) {
+        return getDayString(DAY_NAME, dateInMillis);
+    }
+
+    /**
+     * @return "Today, June 8" for today if displayLongToday, the day name for the next days
+     * of the week, then e.g. "Mon Jun 08"
+     */
+    public String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getDayString(displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY_DAY, dateInMillis);
+    }
+
+    /**
+     * @return the day name and the date, e.g. "Tomorrow, June 9"
+     */
+    public String getFullFriendlyDayString(long dateInMillis) {
+        return getDayString(FULL_FRIENDLY_DAY, dateInMillis);
+    }
+
+    /**
+     * @return e.g. "June 08"
+     */
+    public String getFormattedMonthDay(long dateInMillis) {
+        return getDayString(MONTH_DAY, dateInMillis);
+    }
+
+    private String getDayString(int kind, long dateInMillis) {
+        int julianDay = getJulianDay(dateInMillis);
+        int today = getJulianDay(System.currentTimeMillis());
+        DayTable days = mDays;
+        if (days.today != today) {
+            days = new DayTable(today);
+            mDays = days;
+        }
+        int index = julianDay - today + 1;
+        if (index < 0 || index >= WINDOW_DAYS) {
+            return formatDay(kind, julianDay, today);
+        }
+        String formatted = days.strings[kind][index];
+        if (formatted == null) {
+            formatted = formatDay(kind, julianDay, today);
+            days.strings[kind][index] = formatted;
+        }
+        return formatted;
+    }
+
+    private String formatDay(int kind, int julianDay, int today) {
+        switch (kind) {
+            case DAY_NAME:
+                if (julianDay == today) {
+                    return mToday;
+                } else if (julianDay == today + 1) {
+                    return mTomorrow;
+                }
+                return mWeekdays[getDayOfWeek(julianDay)];
+            case FRIENDLY_LONG_TODAY:
+                if (julianDay == today) {
+                    return String.format(mFullFriendlyDateFormat, mToday,
+                            formatDay(MONTH_DAY, julianDay, today));
+                }
+                // fall through
+            case FRIENDLY_DAY:
+                if (julianDay < today + 7) {
+                    return formatDay(DAY_NAME, julianDay, today);
+                }
+                int[] date = getDate(julianDay);
+                return mShortWeekdays[getDayOfWeek(julianDay)] + " "
+                        + mShortMonths[date[0]] + " " + mDaysOfMonth[date[1]];
+            case FULL_FRIENDLY_DAY:
+                return String.format(mFullFriendlyDateFormat,
+                        formatDay(DAY_NAME, julianDay, today),
+                        formatDay(MONTH_DAY, julianDay, today));
+            default:
+                int[] monthDay = getDate(julianDay);
+                return mMonths[monthDay[0]] + " " + mDaysOfMonth[monthDay[1]];
+        }
+    }
+
+    private String formatCondition(int weatherId) {
+        int stringId = Utility.getStringResourceForWeatherCondition(weatherId);
+        if (stringId == 0) {
+            return mResources.getString(R.string.condition_unknown, weatherId);
+        }
+        return mResources.getString(stringId);
+    }
+
+    /**
+     * @return the index in DIRECTIONS, or DIRECTIONS.length if there is no direction
+     */
+    static int getDirection(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        } else if (degrees >= 22.5 && degrees < 337.5) {
+            return (int) ((degrees - 22.5) / 45) + 1;
+        }
+        // NaN
+        return DIRECTIONS.length;
+    }
+
+    /**
+     * Rounds half away from zero, like String.format does.
+     */
+    private static int round(double value) {
+        return value < 0 ? -(int) (-value + 0.5) : (int) (value + 0.5);
+    }
+
+    /**
+     * @return the local julian day of the time, like Time.getJulianDay with that day's offset
+     */
+    private static int getJulianDay(long millis) {
+        long local = millis + TimeZone.getDefault().getOffset(millis);
+        long days = local / DAY_IN_MILLIS;
+        if (local % DAY_IN_MILLIS < 0) {
+            days--;
+        }
+        return (int) days + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return Calendar.SUNDAY to Calendar.SATURDAY
+     */
+    static int getDayOfWeek(int julianDay) {
+        // Julian day 0 was a Monday
+        return (julianDay + 1) % 7 + Calendar.SUNDAY;
+    }
+
+    /**
+     * @return the month, from Calendar.JANUARY, and the day of the month of a julian day
+     */
+    static int[] getDate(int julianDay) {
+        // Fliegel and Van Flandern's conversion to the Gregorian calendar
+        int l = julianDay + 68569;
+        int n = 4 * l / 146097;
+        l = l - (146097 * n + 3) / 4;
+        int i = 4000 * (l + 1) / 1461001;
+        l = l - 1461 * i / 4 + 31;
+        int j = 80 * l / 2447;
+        int day = l - 2447 * j / 80;
+        l = j / 11;
+        int month = j + 2 - 12 * l;
+        return new int[] {month - 1 + Calendar.JANUARY, day};
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Resolves a location setting to the _ID of its row in the location table, adding the row if
+ * it doesn't exist yet.  Every call still goes through the provider, which answers locations
+ * it already knows from memory and stores new ones with a single upsert statement, so
+ * resolving costs no query and no cursor.  A known location whose city name or coordinates
+ * changed is rewritten under the same _ID.
+ *
+ * Only the sync adapter needs a location's _ID.  The widgets, Muzei and wear read the weather
+ * through location setting uris, which the provider joins on its own.
+ */
+public class LocationResolver {
+
+    private LocationResolver() {
+    }
+
+    /**
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the location
+     */
+    public static long getLocationId(Context context, String locationSetting, String cityName,
+                                     double lat, double lon) {
+        ContentValues locationValues = new ContentValues(4);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        Uri locationUri = context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        return ContentUris.parseId(locationUri);
+    }
+}
@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -44,14 +45,29 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Provider call() that returns the sync pipeline's timings and counters as text, see
+    // com.example.android.sunshine.app.PipelineMetrics
+    public static final String METHOD_DUMP_METRICS = "dump_metrics";
+    public static final String EXTRA_METRICS = "metrics";
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the (local) day.  This runs for every
+        // row the sync writes, so it's plain arithmetic rather than a Time round trip.
+        TimeZone zone = TimeZone.getDefault();
+        long localDate = startDate + zone.getOffset(startDate);
+        long localMidnight = localDate - floorMod(localDate, DAY_IN_MILLIS);
+        // Use the offset in effect at midnight, which differs on days with a DST change
+        long midnight = localMidnight - zone.getOffset(startDate);
+        return localMidnight - zone.getOffset(midnight);
+    }
+
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -15,7 +15,9 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -28,12 +30,37 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
+
+    // Oldest version onUpgrade can migrate from, anything older is dropped and recreated
+    private static final int FIRST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the provider's main access path, one location's days from a date on.  The
+    // UNIQUE (date, location_id) index can't, since its leading column is the date.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    @TargetApi(16)
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging the database keeps a pool of read connections next to the
+        // writer, so loaders, widgets and wear don't wait for a sync's transaction to finish
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    @TargetApi(11)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't do it, so it has to be enabled on the open database
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -81,16 +108,47 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherLocationDateIndex(sqLiteDatabase);
+    }
+
+    // location_setting needs no index of its own, its UNIQUE constraint already provides one
+    private static void createWeatherLocationDateIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // The schema is migrated in place, one version at a time, so the cached forecasts survive
+        // an app update and don't all have to be downloaded again at once.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // Nothing is known about schemas this old, so they are discarded and recreated
+            recreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            upgradeTo(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Migrates a database at {@code version - 1} to {@code version}.  When you increment
+     * DATABASE_VERSION, add a case here for the new version rather than changing onCreate alone.
+     */
+    private void upgradeTo(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
+            case 3:
+                createWeatherLocationDateIndex(sqLiteDatabase);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
@@ -17,12 +17,28 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -35,7 +51,57 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Rows of single day lookups, dropped whenever observers are told about a change
+    private final WeatherRowCache mRowCache = new WeatherRowCache();
+
+    // location_setting -> the row stored for locations known to be stored, guarded by itself
+    private final HashMap<String, KnownLocation> mLocations = new HashMap<String, KnownLocation>();
+    private int mLocationGeneration;
+
+    // State of the applyBatch call running on the current thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    private static class Batch {
+        final Set<Uri> notifications = new LinkedHashSet<Uri>();
+        SQLiteStatement weatherInsert;
+        // Time spent in each kind of write, for PipelineMetrics
+        long insertNanos;
+        long deleteNanos;
+    }
+
+    //INSERT OR REPLACE INTO location (_id, location_setting, city_name, coord_lat, coord_long)
+    //VALUES ((SELECT _id FROM location WHERE location_setting = ?), ?, ?, ?, ?)
+    private static final String sLocationUpsertStatement =
+            "INSERT OR REPLACE INTO " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                    WeatherContract.LocationEntry._ID + ", " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ") VALUES ((SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?), ?, ?, ?, ?)";
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+
+    // Columns bound by the compiled statement bulkInsert uses for weather rows
+    private static final String[] sWeatherInsertColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int WEATHER_INSERT_DATE_INDEX = 1;
+
+    //INSERT INTO weather (location_id, date, ...) VALUES (?, ?, ...)
+    private static final String sWeatherInsertStatement = buildInsertStatement(
+            WeatherContract.WeatherEntry.TABLE_NAME, sWeatherInsertColumns);
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +118,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -98,6 +164,32 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
+        // A day has at most one row, so the sort order doesn't matter to the cache
+        int[] cachedColumns = WeatherRowCache.mapProjection(projection);
+        if (cachedColumns != null) {
+            String key = WeatherRowCache.key(locationSetting, date);
+            Object[] row = mRowCache.get(key);
+            if (row == null) {
+                int generation = mRowCache.generation();
+                Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                        mOpenHelper.getReadableDatabase(),
+                        WeatherRowCache.COLUMNS,
+                        sLocationSettingAndDaySelection,
+                        new String[]{locationSetting, Long.toString(date)},
+                        null,
+                        null,
+                        null
+                );
+                try {
+                    row = WeatherRowCache.read(cursor);
+                } finally {
+                    cursor.close();
+                }
+                mRowCache.put(key, row, generation);
+            }
+            return WeatherRowCache.toCursor(row, projection, cachedColumns);
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
@@ -231,9 +323,24 @@ public class WeatherProvider extends ContentProvider {
         Uri returnUri;
 
         switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+            case WEATHER:
+            // Same row, but only observers of that location are notified
+            case WEATHER_WITH_LOCATION: {
+                long _id;
+                Batch batch = mBatch.get();
+                if (batch != null && isWeatherInsertRow(values)) {
+                    long start = System.nanoTime();
+                    // Inside applyBatch the rows share one compiled statement, like bulkInsert
+                    if (batch.weatherInsert == null) {
+                        batch.weatherInsert = db.compileStatement(sWeatherInsertStatement);
+                    }
+                    bindWeatherRow(batch.weatherInsert, values);
+                    _id = batch.weatherInsert.executeInsert();
+                    batch.insertNanos += System.nanoTime() - start;
+                } else {
+                    normalizeDate(values);
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,17 +348,33 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                // Inserting a known location gives back its row instead of failing.  If OWM
+                // now names or places the city differently the row is rewritten under its _ID.
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                KnownLocation known = getKnownLocation(locationSetting);
+                if (known != null && (!isLocationUpsertRow(values) || known.matches(values))) {
+                    // Nothing changes, so nobody needs to be notified
+                    return WeatherContract.LocationEntry.buildLocationUri(known.id);
+                }
+                int generation = getLocationGeneration();
+                long _id;
+                if (isLocationUpsertRow(values)) {
+                    _id = upsertLocation(db, values);
+                } else {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                }
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                    putKnownLocation(locationSetting, _id, values, generation);
+                } else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -263,24 +386,86 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                long start = System.nanoTime();
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                Batch batch = mBatch.get();
+                if (batch != null) {
+                    batch.deleteNanos += System.nanoTime() - start;
+                }
                 break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                forgetKnownLocations();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Applies the whole batch in one transaction.  Notifications are held back until it has
+     * committed and then sent once per distinct URI, so a sync that inserts a few dozen rows
+     * and deletes the old ones wakes each observer up once.  If any operation fails, nothing
+     * is written and nobody is notified.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (mBatch.get() != null) {
+            // Nested, the outer batch owns the transaction and the notifications
+            return super.applyBatch(operations);
+        }
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        ContentProviderResult[] results;
+        long commitStart;
+        beginTransaction(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            mBatch.remove();
+            if (batch.weatherInsert != null) {
+                batch.weatherInsert.close();
+            }
+            commitStart = System.nanoTime();
+            db.endTransaction();
+        }
+        PipelineMetrics.record(PipelineMetrics.STAGE_INSERT, batch.insertNanos / 1000000);
+        PipelineMetrics.record(PipelineMetrics.STAGE_DELETE, batch.deleteNanos / 1000000);
+        PipelineMetrics.record(PipelineMetrics.STAGE_COMMIT,
+                (System.nanoTime() - commitStart) / 1000000);
+        if (!batch.notifications.isEmpty()) {
+            mRowCache.invalidate();
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : batch.notifications) {
+            resolver.notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.notifications.add(uri);
+        } else {
+            // The write is committed, from now on readers must not get the old rows
+            mRowCache.invalidate();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -289,6 +474,165 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * A stored location row, as it was inserted.
+     */
+    private static class KnownLocation {
+        final long id;
+        final String cityName;
+        final Double latitude;
+        final Double longitude;
+
+        KnownLocation(long id, ContentValues values) {
+            this.id = id;
+            cityName = values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
+            latitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+            longitude = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        }
+
+        boolean matches(ContentValues values) {
+            return TextUtils.equals(cityName,
+                    values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME))
+                    && equals(latitude,
+                    values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT))
+                    && equals(longitude,
+                    values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+        }
+
+        private static boolean equals(Double a, Double b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private KnownLocation getKnownLocation(String locationSetting) {
+        if (locationSetting == null) {
+            return null;
+        }
+        synchronized (mLocations) {
+            return mLocations.get(locationSetting);
+        }
+    }
+
+    private int getLocationGeneration() {
+        synchronized (mLocations) {
+            return mLocationGeneration;
+        }
+    }
+
+    // Only remembered if no location was updated or deleted since generation was taken, and
+    // not inside a batch, which may still be rolled back
+    private void putKnownLocation(String locationSetting, long id, ContentValues values,
+                                  int generation) {
+        if (locationSetting == null || mBatch.get() != null) {
+            return;
+        }
+        synchronized (mLocations) {
+            if (generation == mLocationGeneration) {
+                mLocations.put(locationSetting, new KnownLocation(id, values));
+            }
+        }
+    }
+
+    private void forgetKnownLocations() {
+        synchronized (mLocations) {
+            mLocationGeneration++;
+            mLocations.clear();
+        }
+    }
+
+    private static boolean isLocationUpsertRow(ContentValues values) {
+        return values.size() == 4
+                && values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                && values.containsKey(WeatherContract.LocationEntry.COLUMN_CITY_NAME)
+                && values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LAT)
+                && values.containsKey(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+    }
+
+    /**
+     * Inserts the location, or rewrites it under its existing _ID if the setting is already
+     * stored, in a single statement.  The weather rows referring to it stay valid either way.
+     */
+    private static long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        SQLiteStatement statement = db.compileStatement(sLocationUpsertStatement);
+        try {
+            String locationSetting =
+                    values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+            statement.bindString(1, locationSetting);
+            statement.bindString(2, locationSetting);
+            statement.bindString(3,
+                    values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+            statement.bindDouble(4,
+                    values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+            statement.bindDouble(5,
+                    values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+            try {
+                return statement.executeInsert();
+            } catch (SQLException e) {
+                return -1;
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String buildInsertStatement(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                args.append(", ");
+            }
+            sql.append(columns[i]);
+            args.append('?');
+        }
+        return sql.append(") VALUES (").append(args).append(')').toString();
+    }
+
+    /**
+     * @return true if the row only has columns the compiled weather insert binds
+     */
+    private static boolean isWeatherInsertRow(ContentValues values) {
+        if (values.size() > sWeatherInsertColumns.length) {
+            return false;
+        }
+        int known = 0;
+        for (String column : sWeatherInsertColumns) {
+            if (values.containsKey(column)) {
+                known++;
+            }
+        }
+        return known == values.size();
+    }
+
+    private static void bindWeatherRow(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+            // Bind parameters are 1-based
+            int index = i + 1;
+            Object value = values.get(sWeatherInsertColumns[i]);
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (i == WEATHER_INSERT_DATE_INDEX) {
+                long date = WeatherContract.normalizeDate(
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                // Callers rely on the values holding the stored date, as with insert()
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+                statement.bindLong(index, date);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
@@ -305,12 +649,15 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    forgetKnownLocations();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,27 +668,84 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+            // Same rows, but only observers of that location are notified
+            case WEATHER_WITH_LOCATION:
+                beginTransaction(db);
                 int returnCount = 0;
+                // Compiled once and reused for every row, instead of having db.insert build
+                // and compile the same SQL again for each of them
+                SQLiteStatement statement = db.compileStatement(sWeatherInsertStatement);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id;
+                        if (isWeatherInsertRow(value)) {
+                            bindWeatherRow(statement, value);
+                            try {
+                                _id = statement.executeInsert();
+                            } catch (SQLException e) {
+                                // Same outcome as db.insert, e.g. for a missing column
+                                _id = -1;
+                            }
+                        } else {
+                            // Anything with other columns goes the slow way, so it fails or
+                            // succeeds exactly like it did before
+                            normalizeDate(value);
+                            _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        }
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    statement.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (returnCount != 0) {
+                    notifyChange(uri);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @TargetApi(11)
+    private static void beginTransaction(SQLiteDatabase db) {
+        // Readers are on their own connections with write-ahead logging, an immediate
+        // transaction is all the writer needs
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Answers {@link WeatherContract#METHOD_DUMP_METRICS} with the sync pipeline's metrics and
+     * the day lookup cache's hit rate.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_DUMP_METRICS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(WeatherContract.EXTRA_METRICS, PipelineMetrics.dump()
+                    + "provider.row_cache: hits=" + getRowCacheHitCount()
+                    + " misses=" + getRowCacheMissCount() + "\n");
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    long getRowCacheHitCount() {
+        return mRowCache.getHitCount();
+    }
+
+    long getRowCacheMissCount() {
+        return mRowCache.getMissCount();
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the joined weather and location row of recent single day lookups in memory.  The
+ * notification, the detail widget and the detail view ask for the same days over and over;
+ * with this only the first of them goes to the database.  Only weather/<location>/<date> is
+ * answered from here, lookups of the days from a date on still go to the database.
+ *
+ * The whole cache is dropped on every write that changes the weather or location tables.
+ * A load that raced with such a write is not stored, so it can't bring old data back.
+ */
+class WeatherRowCache {
+
+    private static final int MAX_ENTRIES = 32;
+
+    // Everything a point lookup can ask for, loaded once per location and day
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final int TYPE_LONG = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_STRING = 2;
+
+    // Storage types of COLUMNS, as declared in WeatherDbHelper
+    private static final int[] TYPES = {
+            TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_STRING,
+            TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE,
+            TYPE_LONG, TYPE_STRING, TYPE_STRING, TYPE_DOUBLE, TYPE_DOUBLE
+    };
+
+    // Cached for days that have no row, so those lookups don't hit the database either
+    private static final Object[] NO_ROW = new Object[0];
+
+    private final LruCache<String, Object[]> mRows = new LruCache<String, Object[]>(MAX_ENTRIES);
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private int mGeneration;
+
+    static String key(String locationSetting, long date) {
+        return WeatherContract.normalizeDate(date) + "/" + locationSetting;
+    }
+
+    /**
+     * @return the indices in {@link #COLUMNS} of the projection, or null if the cache can't
+     * answer it, e.g. because it asks for an expression or an ambiguous column
+     */
+    static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        int[] indices = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indices[i] = indexOf(projection[i]);
+            if (indices[i] == -1) {
+                return null;
+            }
+        }
+        return indices;
+    }
+
+    private static int indexOf(String column) {
+        int found = -1;
+        boolean qualified = column.indexOf('.') != -1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String candidate = qualified
+                    ? COLUMNS[i] : COLUMNS[i].substring(COLUMNS[i].indexOf('.') + 1);
+            if (candidate.equals(column)) {
+                if (found != -1) {
+                    // Both tables have it, SQLite would refuse the query as well
+                    return -1;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, taken before loading from the database
+     */
+    synchronized int generation() {
+        return mGeneration;
+    }
+
+    /**
+     * @return the cached row, or null if the key isn't cached
+     */
+    Object[] get(String key) {
+        Object[] row = mRows.get(key);
+        if (row == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return row;
+    }
+
+    /**
+     * Stores a row read with {@link #read}, unless something was written since
+     * {@code generation} was taken.
+     */
+    synchronized void put(String key, Object[] row, int generation) {
+        if (generation == mGeneration) {
+            mRows.put(key, row);
+        }
+    }
+
+    /**
+     * @return the first row of a cursor over {@link #COLUMNS}, in the form the cache keeps
+     */
+    static Object[] read(Cursor cursor) {
+        if (!cursor.moveToFirst()) {
+            return NO_ROW;
+        }
+        Object[] row = new Object[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (cursor.isNull(i)) {
+                continue;
+            }
+            switch (TYPES[i]) {
+                case TYPE_LONG:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case TYPE_DOUBLE:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                default:
+                    row[i] = cursor.getString(i);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @param indices the projection mapped by {@link #mapProjection}
+     * @return a cursor over the projected row, empty if the day has no row
+     */
+    static Cursor toCursor(Object[] row, String[] projection, int[] indices) {
+        String[] names = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            // SQLite names a result column after the column, not the table it came from
+            names[i] = projection[i].substring(projection[i].indexOf('.') + 1);
+        }
+        MatrixCursor cursor = new MatrixCursor(names, 1);
+        if (row != NO_ROW) {
+            Object[] values = new Object[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                values[i] = row[indices[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops everything.  Called once a write is visible to readers.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops requests to a host that keeps failing, so syncs and manual refreshes don't pile onto a
+ * backend that is already down.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and every request is
+ * refused until the cooldown is over.  Then a single trial request is let through: if it
+ * succeeds the breaker closes again, if it fails the breaker reopens with twice the cooldown.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long OPEN_MILLIS = 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 30 * 60 * 1000;
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final String mHost;
+    private int mFailures;
+    private long mOpenMillis = OPEN_MILLIS;
+    // 0 while closed
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+
+    private CircuitBreaker(String host) {
+        mHost = host;
+    }
+
+    /**
+     * @param host the host, and port if it isn't the default one
+     */
+    static CircuitBreaker forHost(String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker newBreaker = new CircuitBreaker(host);
+            breaker = sBreakers.putIfAbsent(host, newBreaker);
+            if (breaker == null) {
+                breaker = newBreaker;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Forgets every host, for tests that fail requests on purpose.
+     */
+    static void resetAll() {
+        sBreakers.clear();
+    }
+
+    /**
+     * @return whether a request may be made.  Every request that was allowed must be followed by
+     * exactly one call to {@link #onSuccess}, {@link #onFailure} or {@link #onCancelled}.
+     */
+    synchronized boolean allowRequest() {
+        if (mOpenUntil == 0) {
+            return true;
+        }
+        if (SystemClock.elapsedRealtime() < mOpenUntil || mTrialInFlight) {
+            return false;
+        }
+        mTrialInFlight = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        if (mOpenUntil != 0) {
+            Log.i(LOG_TAG, mHost + " is back, closing");
+        }
+        mFailures = 0;
+        mOpenMillis = OPEN_MILLIS;
+        mOpenUntil = 0;
+        mTrialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        mFailures++;
+        if (mTrialInFlight) {
+            mTrialInFlight = false;
+            mOpenMillis = Math.min(MAX_OPEN_MILLIS, mOpenMillis * 2);
+            open();
+        } else if (mOpenUntil == 0 && mFailures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    /**
+     * The request was abandoned before it told anything about the host.
+     */
+    synchronized void onCancelled() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * @return how long requests will still be refused, 0 if they are allowed
+     */
+    synchronized long getRetryDelayMillis() {
+        if (mOpenUntil == 0) {
+            return 0;
+        }
+        return Math.max(0, mOpenUntil - SystemClock.elapsedRealtime());
+    }
+
+    private void open() {
+        Log.w(LOG_TAG, mHost + " failed " + mFailures + " times in a row, refusing requests for "
+                + mOpenMillis / 1000 + "s");
+        mOpenUntil = SystemClock.elapsedRealtime() + mOpenMillis;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+
+/**
+ * Replays recorded OpenWeatherMap responses instead of going to the network.  Each location has
+ * its own file in the fixture directory, named after the URL encoded location setting plus
+ * {@link #SUFFIX}, holding a response body exactly as OWM sent it (errors included), e.g. as
+ * saved by curl.  A location without a file is reported as unknown, like OWM does.
+ */
+class FixtureForecastSource implements ForecastSource {
+    private static final String LOG_TAG = FixtureForecastSource.class.getSimpleName();
+
+    static final String SUFFIX = ".json";
+
+    private final File mDirectory;
+
+    FixtureForecastSource(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return where the response for the location is expected
+     */
+    static File getFixtureFile(File directory, String locationSetting) {
+        try {
+            return new File(directory, URLEncoder.encode(locationSetting, "UTF-8") + SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public Result fetch(String locationQuery) {
+        Result result = new Result(locationQuery);
+        File file = getFixtureFile(mDirectory, locationQuery);
+        if (!file.isFile()) {
+            Log.d(LOG_TAG, "No fixture for " + locationQuery);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            return result;
+        }
+
+        BufferedReader reader = null;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            ForecastData forecast = ForecastJsonParser.parse(reader);
+            PipelineMetrics.record(PipelineMetrics.STAGE_PARSE,
+                    SystemClock.elapsedRealtime() - start);
+            switch (forecast.messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    result.forecast = forecast;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            result.parseError = true;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void commit(Result result) {
+        // Fixtures never change, there is nothing to remember
+    }
+}
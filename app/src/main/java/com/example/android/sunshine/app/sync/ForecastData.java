@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * The parts of an OpenWeatherMap daily forecast response the sync adapter cares about: the
+ * message code, the city description and one {@link ContentValues} row per forecast day.
+ *
+ * The day rows are complete except for {@link
+ * com.example.android.sunshine.app.data.WeatherContract.WeatherEntry#COLUMN_LOC_KEY}, which is
+ * only known once the city has been resolved against the location table.
+ */
+class ForecastData {
+    // OWM reports errors in the body, so this defaults to OK when no "cod" is present
+    int messageCode = HttpURLConnection.HTTP_OK;
+
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+    boolean hasCity;
+
+    // Julian day (in local time) the first forecast row belongs to
+    int julianStartDay;
+    Vector<ContentValues> days;
+}
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares freshly downloaded forecast days with what is already stored for a location, so
+ * that only the days that actually changed get written.  Rewriting an identical row still
+ * deletes and reinserts it (the weather table replaces on conflict) and wakes up every
+ * observer, which is exactly what a no-op sync should avoid.
+ */
+class ForecastDelta {
+
+    // Every column the sync writes, except the location key which is part of the lookup
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_SHORT_DESC = 2;
+
+    private ForecastDelta() {
+    }
+
+    /**
+     * @param days the incoming rows for the location, with their dates set
+     * @return the rows of {@code days} that are missing or different in the database
+     */
+    static List<ContentValues> changedDays(ContentResolver resolver, long locationId,
+                                           List<ContentValues> days) {
+        List<ContentValues> changed = new ArrayList<ContentValues>(days.size());
+        if (days.isEmpty()) {
+            return changed;
+        }
+
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues day : days) {
+            firstDate = Math.min(firstDate, day.getAsLong(WeatherEntry.COLUMN_DATE));
+        }
+
+        LongSparseArray<ContentValues> stored = new LongSparseArray<ContentValues>(days.size());
+        Cursor cursor = resolver.query(WeatherEntry.CONTENT_URI,
+                DAY_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(locationId),
+                        Long.toString(WeatherContract.normalizeDate(firstDate))},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues(DAY_COLUMNS.length);
+                for (int i = 0; i < DAY_COLUMNS.length; i++) {
+                    if (i == INDEX_SHORT_DESC) {
+                        values.put(DAY_COLUMNS[i], cursor.getString(i));
+                    } else if (i == INDEX_DATE) {
+                        values.put(DAY_COLUMNS[i], cursor.getLong(i));
+                    } else {
+                        values.put(DAY_COLUMNS[i], cursor.getDouble(i));
+                    }
+                }
+                stored.put(cursor.getLong(INDEX_DATE), values);
+            }
+            cursor.close();
+        }
+
+        for (ContentValues day : days) {
+            long date = WeatherContract.normalizeDate(day.getAsLong(WeatherEntry.COLUMN_DATE));
+            ContentValues storedDay = stored.get(date);
+            if (storedDay == null || !sameDay(storedDay, day)) {
+                changed.add(day);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean sameDay(ContentValues stored, ContentValues incoming) {
+        for (int i = 0; i < DAY_COLUMNS.length; i++) {
+            String column = DAY_COLUMNS[i];
+            if (i == INDEX_DATE) {
+                continue;
+            }
+            if (i == INDEX_SHORT_DESC) {
+                String storedDesc = stored.getAsString(column);
+                if (storedDesc == null || !storedDesc.equals(incoming.getAsString(column))) {
+                    return false;
+                }
+            } else {
+                // Everything else is stored as a number, compare the values not the types
+                Double incomingValue = incoming.getAsDouble(column);
+                if (incomingValue == null
+                        || Double.compare(stored.getAsDouble(column), incomingValue) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
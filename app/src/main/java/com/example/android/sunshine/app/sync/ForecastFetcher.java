@@ -0,0 +1,304 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The {@link ForecastSource} behind the app: downloads and parses the OpenWeatherMap forecast
+ * for one location.
+ *
+ * Requests to the same host are limited to {@link #MAX_REQUESTS_PER_HOST} at a time across all
+ * threads, no matter how many workers are fetching.
+ *
+ * Network errors and 5xx or 429 responses are retried up to {@link #MAX_ATTEMPTS} times in
+ * total, after a random delay below an exponentially growing bound.  A host that keeps failing
+ * is left alone for a while, see {@link CircuitBreaker}.
+ */
+class ForecastFetcher implements ForecastSource {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    static final int MAX_REQUESTS_PER_HOST = 2;
+
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 8 * 1000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final ConcurrentHashMap<String, Semaphore> sHostPermits =
+            new ConcurrentHashMap<String, Semaphore>();
+    private static final Random sJitter = new Random();
+
+    private final Context mContext;
+    private final ForecastHttpCache mHttpCache;
+    private final String mBaseUrl;
+    private final int mMaxAttempts;
+    private final long mBaseRetryDelayMillis;
+
+    ForecastFetcher(Context context, ForecastHttpCache httpCache) {
+        this(context, httpCache, FORECAST_BASE_URL, MAX_ATTEMPTS, BASE_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * For tests, which point the fetcher at a local server and don't want to wait.
+     */
+    ForecastFetcher(Context context, ForecastHttpCache httpCache, String baseUrl,
+                    int maxAttempts, long baseRetryDelayMillis) {
+        mContext = context;
+        mHttpCache = httpCache;
+        mBaseUrl = baseUrl;
+        mMaxAttempts = maxAttempts;
+        mBaseRetryDelayMillis = baseRetryDelayMillis;
+    }
+
+    @Override
+    public Result fetch(String locationQuery) {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .build();
+        CircuitBreaker breaker = CircuitBreaker.forHost(builtUri.getAuthority());
+
+        Result result = null;
+        for (int attempt = 0; attempt < mMaxAttempts; attempt++) {
+            if (attempt > 0 && !sleepBeforeRetry(attempt)) {
+                break;
+            }
+            if (!breaker.allowRequest()) {
+                Log.d(LOG_TAG, "Not fetching " + locationQuery + ", "
+                        + builtUri.getAuthority() + " is failing");
+                result = new Result(locationQuery);
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                result.retryAfterMillis = Math.max(1, breaker.getRetryDelayMillis());
+                break;
+            }
+
+            result = fetchOnce(locationQuery, builtUri.toString());
+            if (result.cancelled) {
+                breaker.onCancelled();
+                break;
+            } else if (result.transientError) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits a random time below a bound that doubles with each attempt, so clients that failed
+     * together don't retry together.
+     *
+     * @return false if the sync was cancelled meanwhile
+     */
+    private boolean sleepBeforeRetry(int attempt) {
+        long bound = Math.min(MAX_RETRY_DELAY_MILLIS, mBaseRetryDelayMillis << (attempt - 1));
+        long delay = (long) (sJitter.nextDouble() * bound);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Result fetchOnce(String locationQuery, String cacheKey) {
+        Result result = new Result(locationQuery);
+        result.cacheKey = cacheKey;
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        ForecastStreams.Body body = null;
+        Semaphore hostPermit = null;
+
+        try {
+            URL url = new URL(result.cacheKey);
+
+            hostPermit = getHostPermits(url.getHost());
+            hostPermit.acquire();
+
+            // Resolved on its own to be timed, connect() then gets the cached address
+            long start = SystemClock.elapsedRealtime();
+            InetAddress.getAllByName(url.getHost());
+            PipelineMetrics.record(PipelineMetrics.STAGE_DNS, SystemClock.elapsedRealtime() - start);
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            ForecastStreams.requestCompression(urlConnection);
+            // Only ask for a 304 when there is something in the database it would refer to
+            if (hasCurrentForecast(locationQuery)) {
+                mHttpCache.addConditionalHeaders(urlConnection, result.cacheKey);
+            } else {
+                mHttpCache.clear(result.cacheKey);
+            }
+            start = SystemClock.elapsedRealtime();
+            urlConnection.connect();
+            PipelineMetrics.record(PipelineMetrics.STAGE_CONNECT,
+                    SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            int responseCode = urlConnection.getResponseCode();
+            PipelineMetrics.record(PipelineMetrics.STAGE_FIRST_BYTE,
+                    SystemClock.elapsedRealtime() - start);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                result.notModified = true;
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HTTP_TOO_MANY_REQUESTS) {
+                Log.w(LOG_TAG, "Server answered " + responseCode + " for " + locationQuery);
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                result.transientError = true;
+                return result;
+            }
+
+            // OWM explains other errors, e.g. an unknown city, in a JSON body like a forecast's
+            InputStream inputStream = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+
+            // The response is inflated and parsed while it is being downloaded, so it never has
+            // to be held in memory as a whole.  An empty stream shows up as an EOFException.
+            start = SystemClock.elapsedRealtime();
+            body = ForecastStreams.open(urlConnection, inputStream);
+            ForecastData forecast = ForecastJsonParser.parse(body.reader);
+            long readMillis = body.getReadMillis();
+            PipelineMetrics.record(PipelineMetrics.STAGE_DOWNLOAD, readMillis);
+            PipelineMetrics.record(PipelineMetrics.STAGE_PARSE,
+                    SystemClock.elapsedRealtime() - start - readMillis);
+
+            // do we have an error?
+            switch (forecast.messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    result.forecast = forecast;
+                    result.etag = ForecastHttpCache.getEtag(urlConnection);
+                    result.lastModified = ForecastHttpCache.getLastModified(urlConnection);
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    result.transientError =
+                            forecast.messageCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            result.transientError = true;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            result.parseError = true;
+        } catch (InterruptedException e) {
+            // The sync was cancelled while waiting for the host
+            Thread.currentThread().interrupt();
+            hostPermit = null;
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            result.cancelled = true;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+                result.wireBytes = body.getWireBytes();
+                result.bodyBytes = body.getBodyBytes();
+                Log.d(LOG_TAG, "Read " + result.bodyBytes + " bytes for " + locationQuery
+                        + " from " + result.wireBytes + " on the wire");
+            }
+            if (hostPermit != null) {
+                hostPermit.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remembers the validators of a result whose forecast has been stored, so the next fetch
+     * of the same location can be answered with a 304.
+     */
+    @Override
+    public void commit(Result result) {
+        if (result.forecast != null) {
+            mHttpCache.storeValidators(result.cacheKey, result.etag, result.lastModified);
+        }
+    }
+
+    /**
+     * @return true if the database holds forecast rows from today on for the location
+     */
+    private boolean hasCurrentForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        Semaphore permits = sHostPermits.get(host);
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(MAX_REQUESTS_PER_HOST, true);
+            permits = sHostPermits.putIfAbsent(host, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+}
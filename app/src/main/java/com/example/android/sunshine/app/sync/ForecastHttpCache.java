@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Remembers the ETag and Last-Modified validators of the last forecast response that was
+ * stored, so the next request for the same URL can be made conditional and the server can
+ * answer with a bodiless 304 when the forecast hasn't changed.
+ *
+ * Entries are keyed by the full request URL, which covers the location query as well as the
+ * format, units and day count parameters.
+ */
+class ForecastHttpCache {
+    private static final String PREFS_NAME = "forecast_http_cache";
+    private static final String ETAG_PREFIX = "etag:";
+    private static final String LAST_MODIFIED_PREFIX = "last_modified:";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastHttpCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since to a connection that hasn't been connected yet.
+     * Does nothing if nothing was stored for the key.
+     */
+    void addConditionalHeaders(HttpURLConnection connection, String key) {
+        String etag = mPrefs.getString(ETAG_PREFIX + key, null);
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        String lastModified = mPrefs.getString(LAST_MODIFIED_PREFIX + key, null);
+        if (lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    static String getEtag(HttpURLConnection connection) {
+        return connection.getHeaderField(HEADER_ETAG);
+    }
+
+    static String getLastModified(HttpURLConnection connection) {
+        return connection.getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * Saves the validators of a response whose content has been stored.  Validators the
+     * server didn't send (null) are dropped so they can't be paired with the wrong content.
+     */
+    void storeValidators(String key, String etag, String lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (etag != null) {
+            editor.putString(ETAG_PREFIX + key, etag);
+        } else {
+            editor.remove(ETAG_PREFIX + key);
+        }
+        if (lastModified != null) {
+            editor.putString(LAST_MODIFIED_PREFIX + key, lastModified);
+        } else {
+            editor.remove(LAST_MODIFIED_PREFIX + key);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators for a key, e.g. when the stored forecast can't be trusted anymore.
+     */
+    void clear(String key) {
+        mPrefs.edit()
+                .remove(ETAG_PREFIX + key)
+                .remove(LAST_MODIFIED_PREFIX + key)
+                .apply();
+    }
+}
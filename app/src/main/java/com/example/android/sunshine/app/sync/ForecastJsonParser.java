@@ -0,0 +1,332 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into {@link ForecastData}.
+ *
+ * On Honeycomb and higher the response is pulled token by token with a {@link JsonReader}, so
+ * each element of the "list" array becomes a row as soon as its bytes arrive and neither the
+ * raw JSON string nor a JSONObject tree is ever built.  Older devices don't have JsonReader and
+ * fall back to reading the whole response and parsing it with {@link JSONObject}.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // OWM sends 14 days at most, this is only a sizing hint
+    private static final int EXPECTED_DAYS = 14;
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses the forecast read from the given reader.  The reader is not closed.
+     *
+     * @throws IOException if the stream could not be read, or was empty.  A response that is
+     *                     not valid JSON, including one that ends before the JSON does, is
+     *                     reported as a {@link JSONException} instead.
+     * @throws JSONException if the response is not a forecast we understand
+     */
+    static ForecastData parse(Reader reader) throws IOException, JSONException {
+        ForecastData forecast = new ForecastData();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        forecast.julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            parseStream(reader, forecast);
+        } else {
+            parseTree(reader, forecast);
+        }
+
+        // An error response carries nothing else, let the caller deal with the code
+        if (forecast.messageCode == HttpURLConnection.HTTP_OK) {
+            if (forecast.days == null) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!forecast.hasCity) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void parseStream(Reader in, ForecastData forecast)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        boolean started = false;
+        try {
+            reader.beginObject();
+            started = true;
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" is sent as a string on success and as a number on some errors,
+                    // nextInt() copes with both.
+                    forecast.messageCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw new JSONException(e.getMessage());
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (EOFException e) {
+            // An empty response stays an IOException, like it is for parseTree.  One that stops
+            // in the middle is a broken response, the same as it would be for JSONObject.
+            if (!started) {
+                throw e;
+            }
+            throw new JSONException("Incomplete forecast response: " + e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ForecastData forecast)
+            throws IOException, JSONException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = hasLatitude && hasLongitude;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasName || !hasCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+        forecast.hasCity = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, ForecastData forecast)
+            throws IOException, JSONException {
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+        forecast.days = new Vector<ContentValues>(EXPECTED_DAYS);
+
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(forecast.julianStartDay + i);
+            forecast.days.add(readDay(reader, dateTime));
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDay(JsonReader reader, long dateTime)
+            throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, reader.nextInt());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.peek() != JsonToken.END_ARRAY) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // 8 values plus the date, anything less means the day is missing a field
+        if (weatherValues.size() != 9) {
+            throw new JSONException("Incomplete forecast day " + weatherValues);
+        }
+        return weatherValues;
+    }
+
+    private static void parseTree(Reader reader, ForecastData forecast)
+            throws IOException, JSONException {
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[1024];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        forecast.hasCity = true;
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+        forecast.days = new Vector<ContentValues>(weatherArray.length());
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(forecast.julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(OWM_WIND_DIRECTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(OWM_MIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(OWM_WEATHER_ID));
+
+            forecast.days.add(weatherValues);
+        }
+    }
+}
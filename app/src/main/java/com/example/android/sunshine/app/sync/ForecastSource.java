@@ -0,0 +1,55 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Where the sync adapter gets forecasts from.  {@link ForecastFetcher} asks OpenWeatherMap,
+ * {@link FixtureForecastSource} replays recorded responses so the rest of the sync can be
+ * exercised offline.
+ *
+ * Nothing is written to the database by a source, so several locations can be fetched
+ * concurrently and stored together.  Implementations must allow that.
+ */
+interface ForecastSource {
+
+    /**
+     * Outcome of fetching one location.  The forecast is only set when the status is
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_OK} and the server sent new content.
+     */
+    class Result {
+        final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus int status;
+        boolean notModified;
+        ForecastData forecast;
+        // Filled in once the forecast has been compared with the stored one
+        int changedDays;
+
+        // Why a fetch failed, for the retries, the circuit breaker and the sync stats
+        boolean transientError;
+        boolean parseError;
+        boolean cancelled;
+        // Set when the circuit breaker refused the request
+        long retryAfterMillis;
+
+        // Size of the response body as downloaded and once inflated
+        long wireBytes;
+        long bodyBytes;
+
+        // Needed to remember the response validators once the forecast has been stored
+        String cacheKey;
+        String etag;
+        String lastModified;
+
+        Result(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    /**
+     * @return the outcome for the location, never null
+     */
+    Result fetch(String locationQuery);
+
+    /**
+     * Called once the forecast of a result has been stored.
+     */
+    void commit(Result result);
+}
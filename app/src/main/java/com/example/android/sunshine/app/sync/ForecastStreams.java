@@ -0,0 +1,272 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayDeque;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens forecast response bodies for the parser.  Forecast JSON shrinks to a fraction of its
+ * size when gzipped, so responses are asked for compressed and inflated while the parser reads
+ * them.  The header is set explicitly, which turns off the platform's transparent gzip handling
+ * and lets the bytes on the wire be counted next to the bytes of JSON they carried.
+ *
+ * Reads from the socket go through buffers taken from a small pool, so a sync over many
+ * locations doesn't allocate a new one for every request.  The time spent waiting for the
+ * network is measured there too, so it can be told apart from the time spent parsing.
+ */
+class ForecastStreams {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+
+    static final int BUFFER_BYTES = 8 * 1024;
+    // Enough for every request that can run at once against one host
+    private static final int POOLED_BUFFERS = ForecastFetcher.MAX_REQUESTS_PER_HOST * 2;
+
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<byte[]>(POOLED_BUFFERS);
+
+    private ForecastStreams() {
+    }
+
+    /**
+     * A response body being read.  Closing it closes the connection's stream, returns the
+     * buffer to the pool and adds the byte counts to {@link PipelineMetrics}.
+     */
+    static class Body implements Closeable {
+        final Reader reader;
+        private final PooledBufferedInputStream mSocket;
+        private final CountingInputStream mWire;
+        private final CountingInputStream mDecoded;
+        private boolean mClosed;
+
+        private Body(Reader reader, PooledBufferedInputStream socket, CountingInputStream wire,
+                     CountingInputStream decoded) {
+            this.reader = reader;
+            mSocket = socket;
+            mWire = wire;
+            mDecoded = decoded;
+        }
+
+        /**
+         * @return how long reading the body waited for the network
+         */
+        long getReadMillis() {
+            return mSocket.mReadNanos / 1000000;
+        }
+
+        /**
+         * @return bytes of the body as they came over the network, compressed or not
+         */
+        long getWireBytes() {
+            return mWire.mCount;
+        }
+
+        /**
+         * @return bytes of the body once inflated
+         */
+        long getBodyBytes() {
+            return mDecoded.mCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            PipelineMetrics.count(PipelineMetrics.COUNTER_WIRE_BYTES, mWire.mCount);
+            PipelineMetrics.count(PipelineMetrics.COUNTER_BODY_BYTES, mDecoded.mCount);
+            reader.close();
+        }
+    }
+
+    /**
+     * Asks for a compressed response.  Must be called before the connection is connected.
+     */
+    static void requestCompression(HttpURLConnection connection) {
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, GZIP);
+    }
+
+    /**
+     * @param in the connection's input or error stream
+     */
+    static Body open(HttpURLConnection connection, InputStream in) throws IOException {
+        PooledBufferedInputStream socket = new PooledBufferedInputStream(in);
+        CountingInputStream wire = new CountingInputStream(socket);
+        CountingInputStream decoded = wire;
+        try {
+            if (GZIP.equalsIgnoreCase(connection.getHeaderField(HEADER_CONTENT_ENCODING))) {
+                // Reads the gzip header, so an empty body fails here with an EOFException
+                decoded = new CountingInputStream(new GZIPInputStream(wire));
+            }
+            Reader reader = new InputStreamReader(decoded, "UTF-8");
+            return new Body(reader, socket, wire, decoded);
+        } catch (IOException e) {
+            wire.close();
+            throw e;
+        }
+    }
+
+    private static byte[] acquireBuffer() {
+        synchronized (sBuffers) {
+            byte[] buffer = sBuffers.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_BYTES];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        synchronized (sBuffers) {
+            if (sBuffers.size() < POOLED_BUFFERS) {
+                sBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        // Only read by the thread that reads the stream
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = in.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            ensureOpen();
+            long skipped = in.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Like a BufferedInputStream, with its buffer borrowed from the pool until it is closed.
+     */
+    private static class PooledBufferedInputStream extends FilterInputStream {
+        private byte[] mBuffer = acquireBuffer();
+        private int mPosition;
+        private int mLimit;
+        // Only read by the thread that reads the stream
+        long mReadNanos;
+
+        PooledBufferedInputStream(InputStream in) {
+            super(in);
+        }
+
+        private void ensureOpen() throws IOException {
+            // The buffer went back to the pool, it may be another stream's by now
+            if (mBuffer == null) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        private boolean fill() throws IOException {
+            long start = System.nanoTime();
+            int read = in.read(mBuffer, 0, mBuffer.length);
+            mReadNanos += System.nanoTime() - start;
+            if (read <= 0) {
+                return false;
+            }
+            mPosition = 0;
+            mLimit = read;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            ensureOpen();
+            if (count == 0) {
+                return 0;
+            }
+            if (mPosition == mLimit) {
+                if (count >= mBuffer.length) {
+                    // No point in copying a large read through the buffer
+                    long start = System.nanoTime();
+                    int read = in.read(buffer, offset, count);
+                    mReadNanos += System.nanoTime() - start;
+                    return read;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(count, mLimit - mPosition);
+            System.arraycopy(mBuffer, mPosition, buffer, offset, read);
+            mPosition += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long buffered = Math.min(count, mLimit - mPosition);
+            mPosition += buffered;
+            return buffered < count ? buffered + in.skip(count - buffered) : buffered;
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return mLimit - mPosition + in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+                releaseBuffer(mBuffer);
+                mBuffer = null;
+            }
+            mPosition = 0;
+            mLimit = 0;
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Notification sized renderings of the weather art, kept in memory and in the cache directory.
+ * Entries are keyed by the art URL, which identifies both the art pack and the condition.
+ *
+ * When the art pack changes, {@link #warm} renders the whole new pack in the background, so
+ * the daily notification normally only has to read a small file instead of downloading and
+ * scaling the art while it is being posted.
+ */
+public class NotificationIconCache {
+    private static final String LOG_TAG = NotificationIconCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "notification_icons";
+    private static final int MEMORY_ENTRIES = 8;
+
+    // One weather id for each distinct piece of art
+    private static final int[] ART_WEATHER_IDS = {200, 300, 500, 600, 701, 800, 801, 802};
+
+    private static final LruCache<String, Bitmap> sMemory =
+            new LruCache<String, Bitmap>(MEMORY_ENTRIES);
+    // A single thread, so a second pack change waits for the first to be rendered
+    private static final ExecutorService sWarmer = Executors.newSingleThreadExecutor();
+
+    private NotificationIconCache() {
+    }
+
+    /**
+     * Renders every icon of the current art pack, replacing what was cached for the previous
+     * one.  Returns right away.
+     */
+    public static void warm(Context context) {
+        final Context appContext = context.getApplicationContext();
+        sWarmer.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                sMemory.evictAll();
+                File[] files = getDirectory(appContext).listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                for (int weatherId : ART_WEATHER_IDS) {
+                    getLargeIcon(appContext, weatherId);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the large notification icon for the condition in the current art pack.  Only
+     * renders it when it isn't cached yet, and falls back to the bundled art if that fails.
+     */
+    static Bitmap getLargeIcon(Context context, int weatherId) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        if (artUrl == null) {
+            return BitmapFactory.decodeResource(context.getResources(), artResourceId);
+        }
+
+        Bitmap icon = sMemory.get(artUrl);
+        if (icon != null) {
+            return icon;
+        }
+        File file = getFile(context, artUrl);
+        icon = BitmapFactory.decodeFile(file.getPath());
+        if (icon != null) {
+            sMemory.put(artUrl, icon);
+            return icon;
+        }
+
+        Resources resources = context.getResources();
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        try {
+            icon = Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(largeIconWidth, largeIconHeight).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            // Not cached, so the art is tried again next time
+            return BitmapFactory.decodeResource(resources, artResourceId);
+        }
+        sMemory.put(artUrl, icon);
+        write(file, icon);
+        return icon;
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    private static File getFile(Context context, String artUrl) {
+        try {
+            return new File(getDirectory(context), URLEncoder.encode(artUrl, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void write(File file, Bitmap icon) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        // Written next to it and renamed, so a reader never decodes half a file
+        File partial = new File(directory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(partial);
+            icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!partial.renameTo(file)) {
+                partial.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error caching large icon", e);
+            partial.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -2,26 +2,30 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
+import android.content.SyncStats;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -29,27 +33,26 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ForecastSnapshot;
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.PipelineMetrics;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationResolver;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -61,6 +64,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Upper bound on the locations fetched at the same time
+    private static final int SYNC_THREADS = 4;
+
+    // How long each consumer of a finished sync may take before it is interrupted.  Wear gets
+    // a little more than the 30 seconds it waits for Play services.
+    private static final long BROADCAST_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long SNAPSHOT_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 20 * 1000;
+    private static final long WEAR_TIMEOUT_MILLIS = 35 * 1000;
+
+    /**
+     * Sync extra asking for every location in the location table to be refreshed, not only the
+     * preferred one.
+     */
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "all_locations";
+
+    /**
+     * Sync extra naming the one location to refresh.
+     */
+    public static final String SYNC_EXTRAS_LOCATION = "location";
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
@@ -86,274 +109,334 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private final ForecastSource mSource;
+    // Whether the outcome goes beyond the database: to the sync schedule, the widgets, Muzei,
+    // the notification and wear
+    private final boolean mPublish;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize,
+                new ForecastFetcher(context, new ForecastHttpCache(context)), true);
+    }
+
+    /**
+     * For tests, which sync from a stand-in for OpenWeatherMap and usually shouldn't touch the
+     * app's periodic sync or what the user sees.
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, ForecastSource source,
+                        boolean publish) {
         super(context, autoInitialize);
+        mSource = source;
+        mPublish = publish;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        long start = SystemClock.elapsedRealtime();
         String locationQuery = Utility.getPreferredLocation(getContext());
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+        List<String> locations;
+        if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            locations = getDueLocations(getTrackedLocations(locationQuery));
+            if (locations.isEmpty()) {
+                Log.d(LOG_TAG, "No location due for a sync");
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+        } else if (extras.getString(SYNC_EXTRAS_LOCATION) != null) {
+            locations = Collections.singletonList(extras.getString(SYNC_EXTRAS_LOCATION));
+        } else {
+            locations = Collections.singletonList(locationQuery);
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // Lets immediate syncs of the preferred location be dropped while this one runs
+        boolean syncsPreferred = locations.get(0).equals(locationQuery);
+        if (syncsPreferred) {
+            SyncCoalescer.onSyncStarted(locationQuery);
+        }
+        boolean committed = false;
+        try {
+            committed = syncLocations(locationQuery, locations, syncResult);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (syncsPreferred) {
+                SyncCoalescer.onSyncFinished(locationQuery, committed);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
-            WearableWatchFaceListener.sendWeatherData(getContext());
+            PipelineMetrics.record(PipelineMetrics.STAGE_SYNC,
+                    SystemClock.elapsedRealtime() - start);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return whether a current forecast for the preferred location is now in the database
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
+    private boolean syncLocations(String locationQuery, List<String> locations,
+                                  SyncResult syncResult) {
+        List<ForecastSource.Result> results = fetchForecasts(locations);
+
+        // Soft errors make the framework retry with its own backoff, delayUntil keeps it from
+        // doing so while the circuit breaker is open
+        for (ForecastSource.Result result : results) {
+            if (result.transientError || result.retryAfterMillis > 0) {
+                syncResult.stats.numIoExceptions++;
+            }
+            if (result.parseError) {
+                syncResult.stats.numParseExceptions++;
+            }
+            if (result.retryAfterMillis > 0) {
+                syncResult.delayUntil = Math.max(syncResult.delayUntil,
+                        (System.currentTimeMillis() + result.retryAfterMillis) / 1000);
+            }
+        }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        // Only the preferred location is shown, so only its outcome is reported to the UI
+        ForecastSource.Result preferred = null;
+        if (results.get(0).locationSetting.equals(locationQuery)) {
+            preferred = results.get(0);
+        }
+        if (preferred != null && preferred.status != LOCATION_STATUS_OK) {
+            setLocationStatus(getContext(), preferred.status);
+        }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        long writesBefore = syncResult.stats.numInserts + syncResult.stats.numDeletes;
+        int inserted = storeForecasts(results, syncResult.stats);
+        if (inserted < 0) {
+            // The validators must not be kept for content that isn't in the database
+            syncResult.databaseError = true;
+            if (preferred != null && preferred.status == LOCATION_STATUS_OK) {
+                setLocationStatus(getContext(), LOCATION_STATUS_UNKNOWN);
+            }
+            return false;
+        }
+        for (ForecastSource.Result result : results) {
+            mSource.commit(result);
+            if (mPublish && result.status == LOCATION_STATUS_OK) {
+                int totalDays = result.forecast != null ? result.forecast.days.size() : 1;
+                SyncScheduler.recordDelta(getContext(), result.locationSetting,
+                        result.changedDays, totalDays);
+                SyncScheduler.reschedule(getContext(), result.locationSetting);
+            }
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        if (preferred != null && preferred.status == LOCATION_STATUS_OK) {
+            if (preferred.notModified) {
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+            }
+            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+        boolean dataChanged =
+                syncResult.stats.numInserts + syncResult.stats.numDeletes > writesBefore;
+        if (mPublish
+                && (dataChanged || (preferred != null && preferred.status == LOCATION_STATUS_OK))) {
+            dispatchDataUpdated(dataChanged);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + inserted + " Inserted for "
+                + locations.size() + " locations");
+        return preferred != null && preferred.status == LOCATION_STATUS_OK;
+    }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * @return the preferred location followed by every other location in the location table
+     */
+    private List<String> getTrackedLocations(String preferredLocation) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(preferredLocation);
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(0);
+                if (!locations.contains(locationSetting)) {
+                    locations.add(locationSetting);
+                }
+            }
+            cursor.close();
+        }
+        return locations;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * @return the locations whose own interval has passed, see {@link SyncScheduler#isDue}
+     */
+    private List<String> getDueLocations(List<String> locations) {
+        List<String> due = new ArrayList<String>(locations.size());
+        for (String location : locations) {
+            if (SyncScheduler.isDue(getContext(), location)) {
+                due.add(location);
+            }
+        }
+        return due;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches all the locations at once on a bounded pool, so the whole sync takes about as
+     * long as the slowest request.  Results are returned in the order of the locations.
+     */
+    private List<ForecastSource.Result> fetchForecasts(List<String> locations) {
+        List<ForecastSource.Result> results = new ArrayList<ForecastSource.Result>(locations.size());
+        if (locations.size() == 1) {
+            // No point in spinning up threads for the common case
+            results.add(mSource.fetch(locations.get(0)));
+            return results;
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(SYNC_THREADS, locations.size()));
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            List<Future<ForecastSource.Result>> futures =
+                    new ArrayList<Future<ForecastSource.Result>>(locations.size());
+            for (final String location : locations) {
+                futures.add(executor.submit(new Callable<ForecastSource.Result>() {
+                    @Override
+                    public ForecastSource.Result call() {
+                        return mSource.fetch(location);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                ForecastSource.Result result;
+                try {
+                    result = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result = new ForecastSource.Result(locations.get(i));
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching " + locations.get(i), e.getCause());
+                    result = new ForecastSource.Result(locations.get(i));
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
                 }
+                results.add(result);
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
+    /**
+     * Stores every fetched forecast with a single provider batch, so the new days of all
+     * locations and the removal of old days commit together in one transaction, and each
+     * location's observers are notified once.  Days that are already stored unchanged are left
+     * alone, and if nothing changed at all nothing is written or notified.
+     *
+     * @param stats receives the number of rows inserted and deleted
+     * @return the number of rows inserted, or -1 if the batch failed and nothing was stored
+     */
+    private int storeForecasts(List<ForecastSource.Result> results, SyncStats stats) {
+        ContentResolver resolver = getContext().getContentResolver();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int julianStartDay = 0;
+        for (ForecastSource.Result result : results) {
+            ForecastData forecast = result.forecast;
+            if (forecast == null) {
+                continue;
+            }
+            julianStartDay = forecast.julianStartDay;
+            long start = SystemClock.elapsedRealtime();
+            long locationId = addLocation(result.locationSetting, forecast.cityName,
+                    forecast.cityLatitude, forecast.cityLongitude);
+            PipelineMetrics.record(PipelineMetrics.STAGE_RESOLVE_LOCATION,
+                    SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            List<ContentValues> changedDays =
+                    ForecastDelta.changedDays(resolver, locationId, forecast.days);
+            PipelineMetrics.record(PipelineMetrics.STAGE_COMPARE,
+                    SystemClock.elapsedRealtime() - start);
+            result.changedDays = changedDays.size();
+            // Observers of a single location don't need to hear about the others
+            Uri insertUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                    result.locationSetting);
+            for (ContentValues weatherValues : changedDays) {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+                operations.add(ContentProviderOperation.newInsert(insertUri)
+                        .withValues(weatherValues)
+                        .build());
             }
+        }
+        if (julianStartDay == 0) {
+            // Nothing was downloaded
+            return 0;
+        }
+        int inserted = operations.size();
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        // delete old data so we don't build up an endless history
+        Time dayTime = new Time();
+        operations.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                .build());
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        int deleted;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            ContentProviderResult[] batchResults =
+                    resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            deleted = batchResults[batchResults.length - 1].count;
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            return -1;
+        }
+        PipelineMetrics.record(PipelineMetrics.STAGE_BATCH, SystemClock.elapsedRealtime() - start);
+        PipelineMetrics.count(PipelineMetrics.COUNTER_ROWS_INSERTED, inserted);
+        PipelineMetrics.count(PipelineMetrics.COUNTER_ROWS_DELETED, deleted);
+        stats.numInserts += inserted;
+        stats.numDeletes += deleted;
+        return inserted;
+    }
+
+    /**
+     * Lets everything outside the app that shows the forecast, and the snapshot the list starts
+     * from, catch up without holding on to the sync while they do.  The snapshot, widgets and
+     * Muzei only show what is stored, so they are left alone when nothing was written.  The
+     * daily notification and the watch face go by the time of day, so they run after every
+     * sync that got a forecast, even when the server said it wasn't modified.
+     *
+     * @param dataChanged whether the sync inserted or deleted any rows.  A new day drops
+     *                    yesterday's row, which changes what "today" shows.
+     */
+    private void dispatchDataUpdated(boolean dataChanged) {
+        final Context context = getContext();
+        List<SyncFanOut.Consumer> consumers = new ArrayList<SyncFanOut.Consumer>(5);
+        if (dataChanged) {
+            consumers.addAll(Arrays.asList(
+                    new SyncFanOut.Consumer("snapshot", SNAPSHOT_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            ForecastSnapshot.write(context, Utility.getPreferredLocation(context));
+                        }
+                    }),
+                    new SyncFanOut.Consumer("widgets", BROADCAST_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateWidgets();
+                        }
+                    }),
+                    new SyncFanOut.Consumer("muzei", BROADCAST_TIMEOUT_MILLIS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateMuzei();
+                        }
+                    })));
         }
+        consumers.addAll(Arrays.asList(
+                new SyncFanOut.Consumer("notification", NOTIFICATION_TIMEOUT_MILLIS,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                notifyWeather();
+                            }
+                        }),
+                new SyncFanOut.Consumer("wear", WEAR_TIMEOUT_MILLIS, new Runnable() {
+                    @Override
+                    public void run() {
+                        WearableWatchFaceListener.sendWeatherData(context);
+                    }
+                })));
+        SyncFanOut.dispatch(consumers);
     }
 
     private void updateWidgets() {
@@ -404,33 +487,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    // Rendered ahead of time when the art pack changed, or on first use
+                    Bitmap largeIcon = NotificationIconCache.getLargeIcon(context, weatherId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -491,70 +550,45 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return LocationResolver.getLocationId(getContext(), locationSetting, cityName, lat, lon);
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution.  The periodic sync covers
+     * every tracked location, {@link SyncScheduler} picks its interval.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // Periodic syncs are identified by their extras, this replaces the one there was
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Calls made in quick succession
+     * are merged into one sync, see {@link SyncCoalescer}.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncCoalescer.request(context);
+    }
+
+    /**
+     * Queues an expedited sync of the preferred location right away.
+     */
+    static void requestImmediateSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -605,7 +639,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SyncScheduler.schedulePeriodicSync(context);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -620,6 +654,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        // onAccountCreated only runs once, upgraded installs get their periodic syncs sorted
+        // out here
+        SyncScheduler.ensurePeriodicSync(context);
     }
 
     /**
@@ -0,0 +1,123 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Merges the immediate sync requests of a burst, e.g. several settings changed in a row, into
+ * a single sync.  A request only starts a short window; the sync is asked for when the window
+ * closes, and every request made in the meantime rides along.
+ *
+ * When the window closes the sync is dropped altogether if the preferred location is already
+ * being synced, or if its forecast was committed moments ago.
+ */
+class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    private static final long WINDOW_MILLIS = 2 * 1000;
+    // A forecast committed this recently is as fresh as a new sync would make it
+    private static final long FRESH_MILLIS = 60 * 1000;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    // All guarded by the class
+    private static boolean sWindowOpen;
+    private static String sSyncingLocation;
+    private static String sCommittedLocation;
+    private static long sCommittedAt;
+    private static int sRequests;
+    private static int sMerged;
+    private static int sDropped;
+    private static int sSyncs;
+
+    private SyncCoalescer() {
+    }
+
+    /**
+     * Asks for a sync of the preferred location once the current window closes.
+     */
+    static void request(Context context) {
+        final Context appContext = context.getApplicationContext();
+        PipelineMetrics.count(PipelineMetrics.COUNTER_SYNC_REQUESTS, 1);
+        synchronized (SyncCoalescer.class) {
+            sRequests++;
+            if (sWindowOpen) {
+                sMerged++;
+                PipelineMetrics.count(PipelineMetrics.COUNTER_SYNCS_MERGED, 1);
+                return;
+            }
+            sWindowOpen = true;
+        }
+        sHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                closeWindow(appContext);
+            }
+        }, WINDOW_MILLIS);
+    }
+
+    private static void closeWindow(Context context) {
+        // Read now rather than when the window opened, the burst may have changed it
+        String locationSetting = Utility.getPreferredLocation(context);
+        String reason = null;
+        synchronized (SyncCoalescer.class) {
+            sWindowOpen = false;
+            if (locationSetting.equals(sSyncingLocation)) {
+                reason = "already syncing";
+            } else if (locationSetting.equals(sCommittedLocation)
+                    && SystemClock.elapsedRealtime() - sCommittedAt < FRESH_MILLIS) {
+                reason = "just synced";
+            }
+            if (reason == null) {
+                sSyncs++;
+            } else {
+                sDropped++;
+            }
+        }
+        if (reason != null) {
+            PipelineMetrics.count(PipelineMetrics.COUNTER_SYNCS_DROPPED, 1);
+            Log.d(LOG_TAG, "Dropped sync of " + locationSetting + ", " + reason + ". " + dumpStats());
+            return;
+        }
+        PipelineMetrics.count(PipelineMetrics.COUNTER_SYNCS_ISSUED, 1);
+        Log.d(LOG_TAG, "Requesting sync of " + locationSetting + ". " + dumpStats());
+        SunshineSyncAdapter.requestImmediateSync(context);
+    }
+
+    /**
+     * Called by the sync adapter before it fetches the location.
+     */
+    static synchronized void onSyncStarted(String locationSetting) {
+        sSyncingLocation = locationSetting;
+    }
+
+    /**
+     * Called by the sync adapter when it is done with the location.
+     *
+     * @param committed whether a current forecast for it is now in the database
+     */
+    static synchronized void onSyncFinished(String locationSetting, boolean committed) {
+        if (locationSetting.equals(sSyncingLocation)) {
+            sSyncingLocation = null;
+        }
+        if (committed) {
+            sCommittedLocation = locationSetting;
+            sCommittedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @return how many requests were made and how many of them ended up as a sync
+     */
+    static synchronized String dumpStats() {
+        float dedupRatio = sRequests == 0 ? 0f : 1f - (float) sSyncs / sRequests;
+        return "requests=" + sRequests + " merged=" + sMerged + " dropped=" + sDropped
+                + " syncs=" + sSyncs + " dedup=" + Math.round(dedupRatio * 100) + "%";
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.PipelineMetrics;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells everything that shows the forecast outside the app (widgets, Muzei, the notification,
+ * wear) that new data was committed.  The consumers run in parallel on a small background pool,
+ * so the sync adapter can return as soon as the data is stored instead of waiting for an icon
+ * download or a Play services connection.
+ *
+ * Every consumer gets its own timeout, after which it is interrupted, and a consumer that
+ * throws is logged without affecting the others.  How long each one took is recorded in
+ * {@link PipelineMetrics} under its name.
+ */
+class SyncFanOut {
+    private static final String LOG_TAG = SyncFanOut.class.getSimpleName();
+
+    private static final int CONSUMER_THREADS = 4;
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    static class Consumer {
+        final String name;
+        final long timeoutMillis;
+        final Runnable task;
+
+        Consumer(String name, long timeoutMillis, Runnable task) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.task = task;
+        }
+    }
+
+    private static final ThreadPoolExecutor sExecutor;
+    private static final ScheduledExecutorService sWatchdog;
+
+    static {
+        final AtomicInteger threadCount = new AtomicInteger();
+        sExecutor = new ThreadPoolExecutor(CONSUMER_THREADS, CONSUMER_THREADS,
+                IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "SyncFanOut #" + threadCount.incrementAndGet());
+                    }
+                });
+        // Nothing to keep alive between syncs
+        sExecutor.allowCoreThreadTimeOut(true);
+        sWatchdog = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    private SyncFanOut() {
+    }
+
+    /**
+     * Starts every consumer and returns right away.
+     */
+    static void dispatch(List<Consumer> consumers) {
+        for (final Consumer consumer : consumers) {
+            final long queuedAt = SystemClock.elapsedRealtime();
+            final AtomicBoolean started = new AtomicBoolean();
+            final Future<?> future = sExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    started.set(true);
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    boolean failed = false;
+                    try {
+                        consumer.task.run();
+                    } catch (RuntimeException e) {
+                        failed = true;
+                        Log.e(LOG_TAG, consumer.name + " failed", e);
+                    }
+                    boolean timedOut = Thread.interrupted();
+                    long millis = SystemClock.elapsedRealtime() - queuedAt;
+                    record(consumer.name, millis, failed, timedOut);
+                    Log.d(LOG_TAG, consumer.name + " took " + millis + "ms"
+                            + (timedOut ? " and timed out" : ""));
+                }
+            });
+            sWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.cancel(true)) {
+                        Log.w(LOG_TAG, consumer.name + " didn't finish within "
+                                + consumer.timeoutMillis + "ms");
+                        if (!started.get()) {
+                            // Never got a thread, so it won't record itself
+                            record(consumer.name, consumer.timeoutMillis, false, true);
+                        }
+                    }
+                }
+            }, consumer.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void record(String name, long millis, boolean failed, boolean timedOut) {
+        PipelineMetrics.record(PipelineMetrics.STAGE_FAN_OUT + name, millis);
+        if (failed) {
+            PipelineMetrics.count(PipelineMetrics.COUNTER_FAN_OUT_FAILURES + name, 1);
+        }
+        if (timedOut) {
+            PipelineMetrics.count(PipelineMetrics.COUNTER_FAN_OUT_TIMEOUTS + name, 1);
+        }
+    }
+}
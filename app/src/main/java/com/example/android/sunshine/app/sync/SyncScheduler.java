@@ -0,0 +1,216 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.PeriodicSync;
+import android.content.SharedPreferences;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Picks the periodic sync interval of each location instead of using the same three hours for
+ * everyone.  The interval starts from {@link SunshineSyncAdapter#SYNC_INTERVAL} and is
+ * <ul>
+ *     <li>shortened for locations whose forecast changed a lot in recent syncs, and stretched
+ *     for those where it hardly ever changes,</li>
+ *     <li>stretched when nobody looks at the forecast: the location isn't the preferred one, or
+ *     neither the app nor the watch face showed it for a while and there is no widget.  A widget
+ *     is always on the home screen, so having one counts as looking at it,</li>
+ *     <li>stretched at night.  That is left out of the stored interval and applied by {@link
+ *     #isDue(Context, String)} at the hour of the run, so a sync that happens at night doesn't
+ *     slow down the following day.</li>
+ * </ul>
+ * Every interval that gets chosen is logged along with the reasons for it.
+ *
+ * All the locations share one periodic sync with {@link
+ * SunshineSyncAdapter#SYNC_EXTRAS_ALL_LOCATIONS}, so they are still fetched together.  It runs
+ * at the shortest of their intervals, and each run only fetches the locations that are due,
+ * see {@link #isDue(Context, String)}.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String VOLATILITY_PREFIX = "volatility:";
+    private static final String INTERVAL_PREFIX = "interval:";
+    private static final String LAST_SYNCED_PREFIX = "last_synced:";
+    private static final String PERIODIC_INTERVAL = "periodic_interval";
+    private static final String LAST_VIEWED = "last_viewed";
+
+    private static final int MIN_INTERVAL = 60 * 60;
+    private static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Weight of the latest sync in the volatility average
+    private static final float VOLATILITY_WEIGHT = 0.3f;
+    // Share of changed days at which the base interval is kept
+    private static final float NEUTRAL_VOLATILITY = 0.25f;
+
+    private static final long RECENTLY_VIEWED_MILLIS = 1000 * 60 * 60 * 24;
+    private static final float NOT_VIEWED_FACTOR = 2f;
+    private static final float NOT_PREFERRED_FACTOR = 3f;
+
+    private static final int NIGHT_START_HOUR = 0;
+    private static final int NIGHT_END_HOUR = 6;
+    private static final float NIGHT_FACTOR = 2f;
+
+    // Smaller changes than this aren't worth rescheduling for
+    private static final float RESCHEDULE_THRESHOLD = 0.1f;
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Notes that the forecast was on screen, in the app, a widget or on the watch face.
+     */
+    public static void recordView(Context context) {
+        getPrefs(context).edit().putLong(LAST_VIEWED, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Folds the outcome of a sync into the location's volatility.
+     *
+     * @param changedDays days that were new or different, 0 if the server said not modified
+     * @param totalDays days in the forecast
+     */
+    static void recordDelta(Context context, String locationSetting, int changedDays,
+                            int totalDays) {
+        SharedPreferences prefs = getPrefs(context);
+        float changed = totalDays == 0 ? 0f : (float) changedDays / totalDays;
+        float volatility = prefs.getFloat(VOLATILITY_PREFIX + locationSetting, NEUTRAL_VOLATILITY);
+        volatility += VOLATILITY_WEIGHT * (changed - volatility);
+        prefs.edit()
+                .putFloat(VOLATILITY_PREFIX + locationSetting, volatility)
+                .putLong(LAST_SYNCED_PREFIX + locationSetting, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return whether the location's interval, stretched if it is night now, has passed since it
+     * was last synced, give or take the flex time of the periodic sync.  Locations that were
+     * never synced are always due.
+     */
+    static boolean isDue(Context context, String locationSetting) {
+        SharedPreferences prefs = getPrefs(context);
+        int interval = prefs.getInt(INTERVAL_PREFIX + locationSetting, 0);
+        if (isNight()) {
+            interval = Math.min(MAX_INTERVAL, Math.round(interval * NIGHT_FACTOR));
+        }
+        long lastSynced = prefs.getLong(LAST_SYNCED_PREFIX + locationSetting, 0);
+        return System.currentTimeMillis() - lastSynced >= (interval - interval / 3) * 1000L;
+    }
+
+    /**
+     * Works out the location's daytime interval, and updates the periodic sync if the shortest interval
+     * moved noticeably.
+     */
+    static void reschedule(Context context, String locationSetting) {
+        SharedPreferences prefs = getPrefs(context);
+        float volatility = prefs.getFloat(VOLATILITY_PREFIX + locationSetting, NEUTRAL_VOLATILITY);
+        // Twice as often at twice the neutral volatility, 1.5x as rarely when nothing changes
+        float volatilityFactor = Math.min(1.5f,
+                Math.max(0.5f, 1f - 2f * (volatility - NEUTRAL_VOLATILITY)));
+
+        float usageFactor;
+        String usage;
+        if (!locationSetting.equals(Utility.getPreferredLocation(context))) {
+            usageFactor = NOT_PREFERRED_FACTOR;
+            usage = "not preferred";
+        } else if (hasWidgets(context) || System.currentTimeMillis()
+                - prefs.getLong(LAST_VIEWED, 0) < RECENTLY_VIEWED_MILLIS) {
+            usageFactor = 1f;
+            usage = "in use";
+        } else {
+            usageFactor = NOT_VIEWED_FACTOR;
+            usage = "not viewed";
+        }
+
+        int interval = Math.round(SunshineSyncAdapter.SYNC_INTERVAL
+                * volatilityFactor * usageFactor);
+        interval = Math.min(MAX_INTERVAL, Math.max(MIN_INTERVAL, interval));
+
+        Log.i(LOG_TAG, "Sync interval for " + locationSetting + ": " + interval + "s"
+                + " (volatility " + volatility + ", " + usage + ")");
+        prefs.edit().putInt(INTERVAL_PREFIX + locationSetting, interval).apply();
+        schedulePeriodicSync(context);
+    }
+
+    /**
+     * Runs the periodic sync at the shortest interval of any location, so none of them is
+     * synced later than its own interval asks for.
+     */
+    static void schedulePeriodicSync(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        int period = Integer.MAX_VALUE;
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(INTERVAL_PREFIX)) {
+                period = Math.min(period, prefs.getInt(key, MAX_INTERVAL));
+            }
+        }
+        if (period == Integer.MAX_VALUE) {
+            period = SunshineSyncAdapter.SYNC_INTERVAL;
+        }
+
+        int previous = prefs.getInt(PERIODIC_INTERVAL, 0);
+        if (previous != 0 && Math.abs(period - previous) <= previous * RESCHEDULE_THRESHOLD) {
+            return;
+        }
+        Log.i(LOG_TAG, "Periodic sync every " + period + "s");
+        prefs.edit().putInt(PERIODIC_INTERVAL, period).apply();
+        SunshineSyncAdapter.configurePeriodicSync(context, period, period / 3);
+    }
+
+    /**
+     * Leaves the account with only the all-locations periodic sync, registering it if the sync
+     * framework doesn't have it.  Older versions scheduled one without extras for the preferred
+     * location, and then one per location with {@link SunshineSyncAdapter#SYNC_EXTRAS_LOCATION},
+     * which would run next to it.  Does nothing once that is done, so it runs on every start.
+     */
+    public static void ensurePeriodicSync(Context context) {
+        Account account = SunshineSyncAdapter.getSyncAccount(context);
+        if (account == null) {
+            return;
+        }
+        String authority = context.getString(R.string.content_authority);
+        boolean scheduled = false;
+        for (PeriodicSync sync : ContentResolver.getPeriodicSyncs(account, authority)) {
+            if (sync.extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                scheduled = true;
+            } else {
+                Log.i(LOG_TAG, "Removing periodic sync " + sync.extras);
+                ContentResolver.removePeriodicSync(account, authority, sync.extras);
+            }
+        }
+        if (scheduled) {
+            return;
+        }
+        // Whatever was scheduled before isn't, start over
+        getPrefs(context).edit().remove(PERIODIC_INTERVAL).apply();
+        schedulePeriodicSync(context);
+    }
+
+    private static boolean isNight() {
+        Time now = new Time();
+        now.setToNow();
+        return now.hour >= NIGHT_START_HOUR && now.hour < NIGHT_END_HOUR;
+    }
+
+    private static boolean hasWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -49,6 +49,8 @@ public class WearableWatchFaceListener extends WearableListenerService {
                     ASK_WEATHER_MESSAGE_PATH)) {
                 continue;
             }
+            // The watch face asking for the weather counts as looking at it
+            SyncScheduler.recordView(this);
             sendWeatherData(this);
         }
     }